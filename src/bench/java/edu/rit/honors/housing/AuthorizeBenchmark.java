@@ -0,0 +1,71 @@
+package edu.rit.honors.housing;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.jdo.PersistenceManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.devrel.samples.ttt.PMF;
+
+import edu.rit.honors.housing.cache.PermissionCache;
+
+/**
+ * Checking that a student may reserve rooms, with and without the permission
+ * cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(1)
+@Fork(1)
+public class AuthorizeBenchmark {
+	
+	@Param({"1000", "20000"})
+	public int students;
+	
+	private final BuildingFixture fixture = new BuildingFixture();
+	private final Housing housing = new Housing();
+	private final Random random = new Random(42);
+	
+	@Setup
+	public void setUp() throws NotFoundException, ConflictException {
+		this.fixture.setUp(BuildingFixture.SPEC, this.students, 0);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		this.fixture.tearDown();
+	}
+	
+	@Benchmark
+	public void authorize() throws UnauthorizedException {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			this.housing.authorize(this.fixture.randomStudent(this.random), pm, Housing.STUDENT_PERMISSION);
+		} finally {
+			pm.close();
+		}
+	}
+	
+	@Benchmark
+	public void authorizeUncached() throws UnauthorizedException {
+		PermissionCache.invalidate();
+		this.authorize();
+	}
+
+}
@@ -0,0 +1,187 @@
+package edu.rit.honors.housing;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import javax.jdo.PersistenceManager;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.NotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.samples.ttt.PMF;
+
+import edu.rit.honors.housing.datastore.Initializer;
+import edu.rit.honors.housing.datastore.ListHelper;
+import edu.rit.honors.housing.datastore.RoomHelper;
+import edu.rit.honors.housing.jdo.BuildingLayout;
+import edu.rit.honors.housing.jdo.Floor;
+import edu.rit.honors.housing.jdo.FloorLayout;
+import edu.rit.honors.housing.jdo.Reservation;
+import edu.rit.honors.housing.jdo.Room;
+import edu.rit.honors.housing.jdo.RoomOccupancy;
+
+/**
+ * Fills the local datastore and memcache stubs with a building, a student
+ * list and reservations.  The building is either the one in spec.json or a
+ * synthetic one with a given number of rooms.
+ * 
+ * The stubs are bound to the thread that calls setUp, so the fixture must be
+ * used from that thread only.
+ */
+public class BuildingFixture {
+	
+	public static final String SPEC = "spec";
+	
+	private static final int ROOMS_PER_FLOOR = 50;
+	private static final int BATCH = 500;
+	
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+			new LocalDatastoreServiceTestConfig()
+				.setNoStorage(true)
+				.setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+			new LocalMemcacheServiceTestConfig());
+	
+	private final List<Integer> rooms = new ArrayList<Integer>();
+	private final List<Integer> capacities = new ArrayList<Integer>();
+	private final List<User> students = new ArrayList<User>();
+	
+	/**
+	 * @param building SPEC, or the number of rooms in a synthetic building
+	 * @param students the number of students on the Student list
+	 * @param fill the fraction of beds to reserve, limited by the number of students
+	 */
+	public void setUp(String building, int students, double fill) throws NotFoundException, ConflictException {
+		this.helper.setUp();
+		if(SPEC.equals(building)) {
+			Initializer.init(PMF.get().getPersistenceManager());
+		} else {
+			this.createBuilding(Integer.parseInt(building));
+		}
+		
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			BuildingLayout layout = (new RoomHelper(pm)).loadLayout();
+			List<String> numbers = new ArrayList<String>();
+			for(FloorLayout f : layout.getFloors()) {
+				for(int i = 0; i < f.getRooms().length; i++) {
+					this.rooms.add(f.getRooms()[i]);
+					this.capacities.add(f.getCapacity()[i]);
+					numbers.add(Integer.toString(f.getRooms()[i]));
+				}
+			}
+			ListHelper.updateList(Housing.ROOM_LIST, pm, numbers, false);
+			
+			List<String> emails = new ArrayList<String>(students);
+			for(int i = 0; i < students; i++) {
+				String email = "student" + i + "@g.rit.edu";
+				emails.add(email);
+				this.students.add(new User(email, "g.rit.edu"));
+			}
+			ListHelper.updateList(Housing.STUDENT_PERMISSION, pm, emails, false);
+		} finally {
+			pm.close();
+		}
+		
+		this.createReservations(fill);
+	}
+	
+	public void tearDown() {
+		this.helper.tearDown();
+	}
+	
+	/** @return the number of every room in the building, in floor order */
+	public List<Integer> getRooms() {
+		return this.rooms;
+	}
+	
+	/** @return the capacity of every room, in the same order as getRooms */
+	public List<Integer> getCapacities() {
+		return this.capacities;
+	}
+	
+	/** @return every student on the Student list */
+	public List<User> getStudents() {
+		return this.students;
+	}
+	
+	public Integer randomRoom(Random random) {
+		return this.rooms.get(random.nextInt(this.rooms.size()));
+	}
+	
+	public User randomStudent(Random random) {
+		return this.students.get(random.nextInt(this.students.size()));
+	}
+	
+	private void createBuilding(int size) {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			List<Floor> batch = new ArrayList<Floor>();
+			int batchRooms = 0;
+			for(int start = 0; start < size; start += ROOMS_PER_FLOOR) {
+				int floor = start / ROOMS_PER_FLOOR + 1;
+				Key floorKey = Floor.keyFor(String.format("%03d", floor));
+				List<Room> rooms = new ArrayList<Room>(ROOMS_PER_FLOOR);
+				for(int i = 0; i < ROOMS_PER_FLOOR && start + i < size; i++) {
+					Room r = new Room();
+					r.setNumber(floor * 1000 + i);
+					r.setKey(Room.keyFor(floorKey, r.getNumber()));
+					r.setCapacity(1 + i % 4);
+					r.setX(40 * (i / 2));
+					r.setY(60 + 120 * (i % 2));
+					r.setBgpath(Integer.toString(i % 3));
+					rooms.add(r);
+				}
+				Floor f = new Floor(rooms);
+				f.setKey(floorKey);
+				f.setNumber(String.format("%03d", floor));
+				batch.add(f);
+				batchRooms += rooms.size();
+				if(batchRooms >= BATCH) {
+					pm.makePersistentAll(batch);
+					batch.clear();
+					batchRooms = 0;
+				}
+			}
+			pm.makePersistentAll(batch);
+		} finally {
+			pm.close();
+		}
+	}
+	
+	private void createReservations(double fill) {
+		int beds = 0;
+		for(Integer c : this.capacities) {
+			beds += c;
+		}
+		int reservations = Math.min(this.students.size(), (int) (beds * fill));
+		
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			List<Object> batch = new ArrayList<Object>();
+			int student = 0;
+			for(int i = 0; i < this.rooms.size() && student < reservations; i++) {
+				Integer room = this.rooms.get(i);
+				int occupants = Math.min(this.capacities.get(i), reservations - student);
+				for(int bed = 0; bed < occupants; bed++, student++) {
+					User u = this.students.get(student);
+					batch.add(new Reservation(u.getEmail(), u.getNickname(), room, new Date()));
+				}
+				batch.add(new RoomOccupancy(room, occupants));
+				if(batch.size() >= BATCH) {
+					pm.makePersistentAll(batch);
+					batch.clear();
+				}
+			}
+			pm.makePersistentAll(batch);
+		} finally {
+			pm.close();
+		}
+	}
+
+}
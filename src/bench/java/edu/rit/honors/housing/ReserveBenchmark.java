@@ -0,0 +1,69 @@
+package edu.rit.honors.housing;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.UnauthorizedException;
+
+import edu.rit.honors.housing.jdo.FloorList;
+
+/**
+ * Reserving a random room for a random student through the API, including
+ * authorization, the cached floors and the reservation transaction.  Full
+ * rooms are counted like any other call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(1)
+@Fork(1)
+public class ReserveBenchmark {
+	
+	@Param({BuildingFixture.SPEC, "2000"})
+	public String building;
+	
+	@Param({"5000"})
+	public int students;
+	
+	@Param({"0.5"})
+	public double fill;
+	
+	private final BuildingFixture fixture = new BuildingFixture();
+	private final Housing housing = new Housing();
+	private final Random random = new Random(42);
+	
+	@Setup
+	public void setUp() throws NotFoundException, ConflictException {
+		this.fixture.setUp(this.building, this.students, this.fill);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		this.fixture.tearDown();
+	}
+	
+	@Benchmark
+	public FloorList reserve() throws NotFoundException, UnauthorizedException, ForbiddenException {
+		try {
+			return this.housing.reserve(this.fixture.randomStudent(this.random), this.fixture.randomRoom(this.random));
+		} catch (ConflictException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package edu.rit.honors.housing;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.jdo.PersistenceManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.NotFoundException;
+import com.google.devrel.samples.ttt.PMF;
+
+import edu.rit.honors.housing.cache.FloorListCache;
+import edu.rit.honors.housing.datastore.RoomHelper;
+import edu.rit.honors.housing.jdo.BuildingLayout;
+import edu.rit.honors.housing.jdo.FloorList;
+import edu.rit.honors.housing.jdo.Room;
+
+/**
+ * Building the list of floors and looking up single rooms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(1)
+@Fork(1)
+public class RoomsBenchmark {
+	
+	@Param({BuildingFixture.SPEC, "2000", "10000"})
+	public String building;
+	
+	@Param({"20000"})
+	public int students;
+	
+	@Param({"0.9"})
+	public double fill;
+	
+	private final BuildingFixture fixture = new BuildingFixture();
+	private final Random random = new Random(42);
+	private FloorList floors;
+	
+	@Setup
+	public void setUp() throws NotFoundException, ConflictException {
+		this.fixture.setUp(this.building, this.students, this.fill);
+		this.floors = this.getAllFloors();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		this.fixture.tearDown();
+	}
+	
+	@Benchmark
+	public BuildingLayout loadLayout() {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			return (new RoomHelper(pm,true,false)).loadLayout();
+		} finally {
+			pm.close();
+		}
+	}
+	
+	@Benchmark
+	public FloorList getAllFloors() {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			return (new RoomHelper(pm,true,true)).getAllFloors();
+		} finally {
+			pm.close();
+		}
+	}
+	
+	@Benchmark
+	public FloorList getAllFloorsCached() {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			return FloorListCache.get(pm);
+		} finally {
+			pm.close();
+		}
+	}
+	
+	@Benchmark
+	public Room floorListGetRoom() {
+		return this.floors.getRoom(this.fixture.randomRoom(this.random));
+	}
+	
+	@Benchmark
+	public Room roomHelperGetRoom() {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			return (new RoomHelper(pm)).getRoom(this.fixture.randomRoom(this.random));
+		} finally {
+			pm.close();
+		}
+	}
+
+}
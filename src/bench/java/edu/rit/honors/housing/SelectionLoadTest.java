@@ -0,0 +1,287 @@
+package edu.rit.honors.housing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.users.User;
+import com.google.apphosting.api.ApiProxy;
+import com.google.devrel.samples.ttt.PMF;
+
+import edu.rit.honors.housing.datastore.ReservationHelper;
+import edu.rit.honors.housing.jdo.Reservation;
+import edu.rit.honors.housing.jdo.RoomOccupancy;
+import edu.rit.honors.housing.stats.LatencyHistogram;
+
+/**
+ * Simulates the moment selection opens: every student loads the rooms and
+ * tries to reserve one at the same time.  Popular rooms are picked more often
+ * than others, and a student whose room fills up reloads the rooms and tries
+ * another one.
+ *
+ * At the end it prints latencies, throughput and conflict rates, and checks
+ * the datastore for rooms with more reservations than beds.  The exit status
+ * is 1 if any were found.
+ *
+ * Options, all optional:
+ * <pre>
+ *   -building spec|&lt;rooms&gt;  the building to load (spec)
+ *   -students &lt;n&gt;          students on the Student list (2000)
+ *   -threads &lt;n&gt;           students active at once (500)
+ *   -think &lt;ms&gt;            mean pause between calls (200)
+ *   -skew &lt;s&gt;              Zipf exponent for room popularity, 0 is uniform (1.0)
+ *   -attempts &lt;n&gt;          reserve calls before a student gives up (10)
+ *   -seed &lt;n&gt;              random seed (42)
+ * </pre>
+ */
+public class SelectionLoadTest {
+
+	private String building = BuildingFixture.SPEC;
+	private int students = 2000;
+	private int threads = 500;
+	private int think = 200;
+	private double skew = 1.0;
+	private int attempts = 10;
+	private long seed = 42;
+
+	private final BuildingFixture fixture = new BuildingFixture();
+	private final Housing housing = new Housing();
+
+	private final LatencyHistogram roomsLatency = new LatencyHistogram();
+	private final LatencyHistogram reserveLatency = new LatencyHistogram();
+	private final AtomicLong reserved = new AtomicLong();
+	private final AtomicLong full = new AtomicLong();
+	private final AtomicLong busy = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong gaveUp = new AtomicLong();
+
+	/** Cumulative popularity of the rooms, in the order of popular */
+	private double[] weights;
+	private Integer[] popular;
+
+	public static void main(String[] args) throws Exception {
+		SelectionLoadTest test = new SelectionLoadTest();
+		test.parse(args);
+		test.fixture.setUp(test.building, test.students, 0);
+		boolean overbooked;
+		try {
+			test.prepare();
+			overbooked = test.report(test.run());
+		} finally {
+			test.fixture.tearDown();
+		}
+		System.exit(overbooked ? 1 : 0);
+	}
+
+	private void parse(String[] args) {
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			String name = args[i];
+			String value = args[i + 1];
+			if("-building".equals(name)) {
+				this.building = value;
+			} else if("-students".equals(name)) {
+				this.students = Integer.parseInt(value);
+			} else if("-threads".equals(name)) {
+				this.threads = Integer.parseInt(value);
+			} else if("-think".equals(name)) {
+				this.think = Integer.parseInt(value);
+			} else if("-skew".equals(name)) {
+				this.skew = Double.parseDouble(value);
+			} else if("-attempts".equals(name)) {
+				this.attempts = Integer.parseInt(value);
+			} else if("-seed".equals(name)) {
+				this.seed = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+	}
+
+	/**
+	 * Ranks the rooms in a random order and gives the room of rank k a weight
+	 * of 1/k^skew.
+	 */
+	private void prepare() {
+		List<Integer> rooms = new ArrayList<Integer>(this.fixture.getRooms());
+		Collections.shuffle(rooms, new Random(this.seed));
+		this.popular = rooms.toArray(new Integer[rooms.size()]);
+		this.weights = new double[this.popular.length];
+		double total = 0;
+		for(int i = 0; i < this.weights.length; i++) {
+			total += 1 / Math.pow(i + 1, this.skew);
+			this.weights[i] = total;
+		}
+		for(int i = 0; i < this.weights.length; i++) {
+			this.weights[i] /= total;
+		}
+	}
+
+	/**
+	 * @return the time from opening selection until the last student finished, in nanoseconds
+	 */
+	private long run() throws InterruptedException {
+		final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+		final CountDownLatch open = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+		List<User> all = this.fixture.getStudents();
+		for(int i = 0; i < all.size(); i++) {
+			final User student = all.get(i);
+			final Random random = new Random(this.seed + i);
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+					try {
+						open.await();
+						SelectionLoadTest.this.select(student, random);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						ApiProxy.clearEnvironmentForCurrentThread();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+
+		long start = System.nanoTime();
+		open.countDown();
+		pool.awaitTermination(1, TimeUnit.DAYS);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * One student's selection: load the rooms, then keep trying popular rooms
+	 * until one sticks.
+	 */
+	private void select(User student, Random random) throws InterruptedException {
+		this.pause(random);
+		for(int attempt = 0; attempt < this.attempts; attempt++) {
+			long start = System.nanoTime();
+			try {
+				this.housing.rooms(student);
+			} catch (Exception e) {
+				this.errors.incrementAndGet();
+			}
+			this.roomsLatency.record((System.nanoTime() - start) / 1000);
+			this.pause(random);
+
+			start = System.nanoTime();
+			try {
+				this.housing.reserve(student, this.pick(random));
+				this.reserved.incrementAndGet();
+				return;
+			} catch (ConflictException e) {
+				if("Room is full".equals(e.getMessage())) {
+					this.full.incrementAndGet();
+				} else {
+					this.busy.incrementAndGet();
+				}
+			} catch (Exception e) {
+				this.errors.incrementAndGet();
+			} finally {
+				this.reserveLatency.record((System.nanoTime() - start) / 1000);
+			}
+			this.pause(random);
+		}
+		this.gaveUp.incrementAndGet();
+	}
+
+	private Integer pick(Random random) {
+		int i = Arrays.binarySearch(this.weights, random.nextDouble());
+		if(i < 0) {
+			i = -i - 1;
+		}
+		return this.popular[Math.min(i, this.popular.length - 1)];
+	}
+
+	private void pause(Random random) throws InterruptedException {
+		if(this.think > 0) {
+			Thread.sleep((long) (-Math.log(1 - random.nextDouble()) * this.think));
+		}
+	}
+
+	/**
+	 * Prints the results and checks the reservations against the capacity of
+	 * each room.
+	 *
+	 * @return true if any room is overbooked
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean report(long elapsed) {
+		double seconds = elapsed / 1e9;
+		System.out.printf("%d students, %d threads, %s building, think %dms, skew %.2f%n",
+				this.students, this.threads, this.building, this.think, this.skew);
+		System.out.printf("Finished in %.1fs%n", seconds);
+		this.print("rooms", this.roomsLatency, seconds);
+		this.print("reserve", this.reserveLatency, seconds);
+
+		long calls = Math.max(1, this.reserveLatency.getCount());
+		System.out.printf("reserve: %d reserved, %d full (%.1f%%), %d busy (%.1f%%), %d errors, %d gave up%n",
+				this.reserved.get(), this.full.get(), 100.0 * this.full.get() / calls,
+				this.busy.get(), 100.0 * this.busy.get() / calls, this.errors.get(), this.gaveUp.get());
+		System.out.printf("transactions: %d commits, %d conflicts, %d retries, %d failures%n",
+				ReservationHelper.getCommits(), ReservationHelper.getConflicts(),
+				ReservationHelper.getRetries(), ReservationHelper.getFailures());
+
+		Map<Integer,Integer> counted = new HashMap<Integer,Integer>();
+		Map<Integer,Integer> recorded = new HashMap<Integer,Integer>();
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			Query q = pm.newQuery(Reservation.class);
+			for(Reservation r : (List<Reservation>) q.execute()) {
+				Integer n = counted.get(r.getRoomNumber());
+				counted.put(r.getRoomNumber(), (n == null) ? 1 : n + 1);
+			}
+			q = pm.newQuery(RoomOccupancy.class);
+			for(RoomOccupancy o : (List<RoomOccupancy>) q.execute()) {
+				recorded.put(o.getRoomNumber(), o.getOccupants());
+			}
+		} finally {
+			pm.close();
+		}
+
+		int overbooked = 0;
+		int mismatched = 0;
+		List<Integer> rooms = this.fixture.getRooms();
+		List<Integer> capacities = this.fixture.getCapacities();
+		for(int i = 0; i < rooms.size(); i++) {
+			Integer n = counted.get(rooms.get(i));
+			int occupants = (n == null) ? 0 : n;
+			Integer o = recorded.get(rooms.get(i));
+			if(occupants > capacities.get(i)) {
+				overbooked++;
+				System.out.printf("OVERBOOKED: room %d has %d reservations for %d beds%n",
+						rooms.get(i), occupants, capacities.get(i));
+			}
+			if(occupants != ((o == null) ? 0 : o)) {
+				mismatched++;
+				System.out.printf("MISMATCH: room %d has %d reservations but its counter says %d%n",
+						rooms.get(i), occupants, o);
+			}
+		}
+		System.out.printf("%d rooms overbooked, %d occupancy counters out of date%n", overbooked, mismatched);
+		return overbooked > 0;
+	}
+
+	private void print(String name, LatencyHistogram h, double seconds) {
+		System.out.printf("%s: %d calls, %.1f/s, p50 %.1fms, p99 %.1fms, p99.9 %.1fms, max %.1fms%n",
+				name, h.getCount(), h.getCount() / seconds,
+				h.getPercentile(50) / 1000.0, h.getPercentile(99) / 1000.0,
+				h.getPercentile(99.9) / 1000.0, h.getMax() / 1000.0);
+	}
+
+}
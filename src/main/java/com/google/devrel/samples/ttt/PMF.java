@@ -18,9 +18,12 @@ package com.google.devrel.samples.ttt;
 import javax.jdo.JDOHelper;
 import javax.jdo.PersistenceManagerFactory;
 
+import edu.rit.honors.housing.stats.CountingPersistenceManager;
+
 public final class PMF {
-    private static final PersistenceManagerFactory pmfInstance =
-        JDOHelper.getPersistenceManagerFactory("transactions-optional");
+    // PersistenceManagers count their datastore operations for the stats endpoint
+    private static final PersistenceManagerFactory pmfInstance = CountingPersistenceManager.wrap(
+        JDOHelper.getPersistenceManagerFactory("transactions-optional"));
 
     private PMF() {}
 
@@ -4,6 +4,7 @@ import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiNamespace;
 import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
@@ -11,26 +12,52 @@ import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
 import com.google.appengine.api.users.User;
 import com.google.devrel.samples.ttt.PMF;
+import edu.rit.honors.housing.cache.FloorListCache;
+import edu.rit.honors.housing.cache.LayoutCache;
+import edu.rit.honors.housing.cache.LiveOccupancy;
+import edu.rit.honors.housing.cache.PermissionCache;
+import edu.rit.honors.housing.cache.RoomChangeLog;
+import edu.rit.honors.housing.cache.ScheduleCache;
 import edu.rit.honors.housing.datastore.Initializer;
 import edu.rit.honors.housing.datastore.ListHelper;
+import edu.rit.honors.housing.datastore.RequestPrefetch;
+import edu.rit.honors.housing.datastore.ReservationHelper;
+import edu.rit.honors.housing.datastore.ReservationLog;
 import edu.rit.honors.housing.datastore.RoomHelper;
+import edu.rit.honors.housing.datastore.ScheduleHelper;
+import edu.rit.honors.housing.events.ChangeBus;
 import edu.rit.honors.housing.jdo.Floor;
+import edu.rit.honors.housing.jdo.BuildingLayout;
 import edu.rit.honors.housing.jdo.FloorList;
+import edu.rit.honors.housing.jdo.Migration;
+import edu.rit.honors.housing.jdo.Occupancy;
+import edu.rit.honors.housing.jdo.OccupancySnapshot;
+import edu.rit.honors.housing.jdo.OccupancySummary;
 import edu.rit.honors.housing.jdo.Reservation;
+import edu.rit.honors.housing.jdo.ReservationHistory;
 import edu.rit.honors.housing.jdo.Room;
+import edu.rit.honors.housing.jdo.RoomChanges;
+import edu.rit.honors.housing.jdo.RoomSearch;
+import edu.rit.honors.housing.jdo.SelectionSchedule;
+import edu.rit.honors.housing.jdo.SelectionStatus;
 import edu.rit.honors.housing.jdo.StringList;
+import edu.rit.honors.housing.stats.Metrics;
+import edu.rit.honors.housing.stats.StatsReport;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Named;
 import javax.jdo.PersistenceManager;
-import javax.jdo.Query;
-
-import org.datanucleus.store.query.AbstractQueryResult;
 
 /**
  * Honors Housing Selection API
@@ -53,6 +80,23 @@ public class Housing {
 	public static final String EDIT_PERMISSION = "Editor list";
 	public static final String ADMIN_PERMISSION = "Admin list";
 	public static final String ROOM_LIST = "Room list";
+	
+	// Limits on how long waitForChanges holds a request, in seconds
+	private static final int DEFAULT_WAIT = 25;
+	private static final int MAX_WAIT = 50;
+	
+	// Lists that grant permission to use the API
+	private static final String[] PERMISSION_LISTS = { STUDENT_PERMISSION, EDIT_PERMISSION, ADMIN_PERMISSION };
+	
+	// reservations to convert per call of migrateReservations
+	private static final int MIGRATE_BATCH = 200;
+	
+	// floors to convert per call of migrateRooms
+	private static final int MIGRATE_FLOORS = 20;
+	
+	// events returned by reservationLog
+	private static final int DEFAULT_EVENTS = 100;
+	private static final int MAX_EVENTS = 1000;
 
 
 	// Provide default administrators when none are set.
@@ -70,9 +114,10 @@ public class Housing {
     public FloorList rooms(User user) throws NotFoundException, UnauthorizedException {
         PersistenceManager pm = PMF.get().getPersistenceManager();
         try {
+        	// authorize first, so only users on a list can make the floors load
         	this.authorize(user, pm, STUDENT_PERMISSION, EDIT_PERMISSION, ADMIN_PERMISSION);
+        	FloorList rooms = FloorListCache.get(pm);
         	
-        	FloorList rooms = (new RoomHelper(pm,true,true)).getAllFloors();
         	if( rooms == null || rooms.getFloors().size() == 0 ) {
         		throw new NotFoundException("No rooms available.");
         	} else {
@@ -83,6 +128,178 @@ public class Housing {
 		}
     }
 	
+	/**
+	 * Get the layout of the available rooms without their occupants.  Each
+	 * floor lists its rooms' properties as parallel arrays, and bgpaths are
+	 * listed once and referred to by index.  The layout only changes when rooms
+	 * are edited, and its version matches the layout of the rooms response.
+	 * 
+	 * @param user The currently logged in user, filled automatically by the Endpoints SPI
+	 * @return the layout of the building
+	 * @throws NotFoundException if no rooms are found.
+	 * @throws UnauthorizedException if the user isn't on any list
+	 */
+	@ApiMethod(path="rooms/layout", httpMethod = "GET")
+	public BuildingLayout layout(User user) throws NotFoundException, UnauthorizedException {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			this.authorize(user, pm, STUDENT_PERMISSION, EDIT_PERMISSION, ADMIN_PERMISSION);
+			
+			BuildingLayout layout = LayoutCache.get(pm);
+			if( layout.getFloors().isEmpty() ) {
+				throw new NotFoundException("No rooms available.");
+			}
+			return layout;
+		} finally {
+			pm.close();
+		}
+	}
+	
+	/**
+	 * Get just the number of occupants of each room, in the order the rooms
+	 * appear in the response of rooms.  Clients only need to call rooms again
+	 * when the layout returned differs from the layout of the floors they have.
+	 * 
+	 * @param user The currently logged in user, filled automatically by the Endpoints SPI
+	 * @return the layout id and the occupants of each room
+	 * @throws NotFoundException if no rooms are found.
+	 * @throws UnauthorizedException if the user isn't on any list
+	 */
+	@ApiMethod(path="rooms/occupancy", httpMethod = "GET")
+	public Occupancy occupancy(User user) throws NotFoundException, UnauthorizedException {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			this.authorize(user, pm, STUDENT_PERMISSION, EDIT_PERMISSION, ADMIN_PERMISSION);
+			
+			FloorList rooms = FloorListCache.get(pm);
+			if( rooms == null || rooms.getFloors().size() == 0 ) {
+				throw new NotFoundException("No rooms available.");
+			}
+			return new Occupancy(rooms.getLayout(), rooms.occupancy());
+		} finally {
+			pm.close();
+		}
+	}
+	
+	/**
+	 * Get the number of beds, free beds and full rooms on each floor and in
+	 * the whole building, and how many rooms have each number of free beds.
+	 * The totals are kept in memory as rooms are reserved, so this doesn't
+	 * depend on the number of reservations.
+	 * 
+	 * @param user The currently logged in user, filled automatically by the Endpoints SPI
+	 * @return the free beds on each floor and in the building
+	 * @throws NotFoundException if no rooms are found.
+	 * @throws UnauthorizedException if the user isn't on any list
+	 */
+	@ApiMethod(path="rooms/summary", httpMethod = "GET")
+	public OccupancySummary summary(User user) throws NotFoundException, UnauthorizedException {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			this.authorize(user, pm, STUDENT_PERMISSION, EDIT_PERMISSION, ADMIN_PERMISSION);
+			
+			OccupancySummary summary = LiveOccupancy.get().summary(pm);
+			if( summary.getFloors().isEmpty() ) {
+				throw new NotFoundException("No rooms available.");
+			}
+			return summary;
+		} finally {
+			pm.close();
+		}
+	}
+	
+	/**
+	 * Find the rooms on a floor, with a capacity, or with at least some free
+	 * beds.  Rooms are found with an index kept in memory as rooms are
+	 * reserved, rather than by looking at every room.
+	 * 
+	 * @param user The currently logged in user, filled automatically by the Endpoints SPI
+	 * @param floor The floor number, if only one floor is wanted
+	 * @param capacity The number of beds, if only one size of room is wanted
+	 * @param minFree The fewest free beds a room may have
+	 * @param sort floor (the default), number, capacity or free (most first)
+	 * @return the matching rooms, with how many occupants and free beds each has
+	 * @throws BadRequestException if sort isn't one of the orders above
+	 * @throws NotFoundException if no rooms are found.
+	 * @throws UnauthorizedException if the user isn't on any list
+	 */
+	@ApiMethod(path="rooms/search", httpMethod = "GET")
+	public RoomSearch search(User user, @Nullable @Named("floor") String floor,
+			@Nullable @Named("capacity") Integer capacity, @Nullable @Named("minFree") Integer minFree,
+			@Nullable @Named("sort") String sort) throws BadRequestException, NotFoundException, UnauthorizedException {
+		if( sort != null && !LiveOccupancy.SORTS.contains(sort) ) {
+			throw new BadRequestException("Can't sort by "+sort+", use one of "+LiveOccupancy.SORTS);
+		}
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			this.authorize(user, pm, STUDENT_PERMISSION, EDIT_PERMISSION, ADMIN_PERMISSION);
+			
+			if( LayoutCache.get(pm).getFloors().isEmpty() ) {
+				throw new NotFoundException("No rooms available.");
+			}
+			return LiveOccupancy.get().search(pm, floor, capacity, minFree, sort);
+		} finally {
+			pm.close();
+		}
+	}
+	
+	/**
+	 * Get the rooms whose occupancy or metadata changed since the client last
+	 * checked.  Pass the version from the previous response as since; if it is
+	 * omitted or too old, the full list of floors is returned instead.
+	 * 
+	 * @param user The currently logged in user, filled automatically by the Endpoints SPI
+	 * @param since The version returned by the previous call, if any
+	 * @return the changed rooms and the version to pass next time
+	 * @throws NotFoundException if no rooms are found.
+	 * @throws UnauthorizedException if the user isn't on any list
+	 */
+	@ApiMethod(path="rooms/changes", httpMethod = "GET")
+	public RoomChanges changes(User user, @Nullable @Named("since") Long since) throws NotFoundException, UnauthorizedException {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			this.authorize(user, pm, STUDENT_PERMISSION, EDIT_PERMISSION, ADMIN_PERMISSION);
+			return this.getChanges(since, RoomChangeLog.current(), pm);
+		} finally {
+			pm.close();
+		}
+	}
+	
+	/**
+	 * Like changes, but if nothing has changed since the version given, waits
+	 * until a room changes or the timeout passes before returning.  Clients can
+	 * call this again as soon as it returns instead of polling on a timer.
+	 * 
+	 * @param user The currently logged in user, filled automatically by the Endpoints SPI
+	 * @param since The version returned by the previous call
+	 * @param timeout How long to wait, in seconds (at most 50, default 25)
+	 * @return the changed rooms, which may be empty if the wait timed out, and
+	 * 		the version to pass next time
+	 * @throws NotFoundException if no rooms are found.
+	 * @throws UnauthorizedException if the user isn't on any list
+	 * @throws ServiceUnavailableException if the request is interrupted
+	 */
+	@ApiMethod(path="rooms/changes/wait", httpMethod = "GET")
+	public RoomChanges waitForChanges(User user, @Named("since") Long since, @Nullable @Named("timeout") Integer timeout)
+			throws NotFoundException, UnauthorizedException, ServiceUnavailableException {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			this.authorize(user, pm, STUDENT_PERMISSION, EDIT_PERMISSION, ADMIN_PERMISSION);
+			
+			int seconds = (timeout == null) ? DEFAULT_WAIT : Math.max(0, Math.min(timeout, MAX_WAIT));
+			long version = RoomChangeLog.current();
+			if( since >= version ) {
+				version = Math.max(version, ChangeBus.get().await(since, seconds * 1000L));
+			}
+			return this.getChanges(since, version, pm);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException("Interrupted while waiting for changes");
+		} finally {
+			pm.close();
+		}
+	}
+	
 	/**
      * Get the room that the logged in user has reserved.
      * 
@@ -94,9 +311,10 @@ public class Housing {
     public Reservation current(User user) throws UnauthorizedException, NotFoundException {
         PersistenceManager pm = PMF.get().getPersistenceManager();
         try {
-	    	this.authorize(user, pm, STUDENT_PERMISSION);
+        	RequestPrefetch prefetch = this.prefetch(user, true);
+	    	this.authorize(user, pm, prefetch, STUDENT_PERMISSION);
 	
-	        Reservation r = this.getReservation(user,pm);
+	        Reservation r = this.getReservation(user, pm, prefetch);
 	        if(null == r){
 	        	throw new NotFoundException("You have not reserved a room");
 	        }else{
@@ -115,59 +333,170 @@ public class Housing {
      * @return the updated list of floors
      * @throws NotFoundException if no rooms are available or the room requested does not exist.
      * @throws UnauthorizedException if no one is logged in or the current user is not authorized to reserve rooms.
-     * @throws ConflictException if the room is already full
+     * @throws ConflictException if the room is already full, or too many other
+     * 		students are reserving it at the same time
+     * @throws ForbiddenException if the student's selection window hasn't opened yet
      */
 	//TODO: make way to clear reservation
     @ApiMethod(httpMethod = "PUT")
-    public FloorList reserve(User user, @Named("number") Integer room) throws NotFoundException, UnauthorizedException, ConflictException {
+    public FloorList reserve(User user, @Named("number") Integer room)
+    		throws NotFoundException, UnauthorizedException, ConflictException, ForbiddenException {
         PersistenceManager pm = PMF.get().getPersistenceManager();
         try {
-        	this.authorize(user, pm, STUDENT_PERMISSION);
-        	RoomHelper helper = new RoomHelper(pm,true,true);
+        	// get the current reservation while the floors load
+        	RequestPrefetch prefetch = this.prefetch(user, true);
+        	this.authorize(user, pm, prefetch, STUDENT_PERMISSION);
+        	this.admit(user, pm);
+	        FloorList floors = FloorListCache.get(pm);
         	
-	        // Get complete list of rooms
-	        FloorList floors = helper.getAllFloors();
+	        if(floors == null){
+	        	throw new NotFoundException("No rooms available.");
+	        }
 	        
 	        // Check to make sure the user isn't re-reserving the same room
-	        Reservation current = this.getReservation(user, pm);
-	        if(null != current && current.getRoomNumber() == room){
+	        Reservation current = this.getReservation(user, pm, prefetch);
+	        if(null != current && room.equals(current.getRoomNumber())){
 	        	// Nothing to do.
 	        	return floors;
 	        }
 	        
+	        // The cached list is shared, so update a copy of it
+	        floors = floors.copy();
+	        
 	        // Check to make sure the room the user wants exists
 	        Room r = floors.getRoom(room);
 	        if(r == null){
 	        	throw new NotFoundException("Room does not exist");
 	        }
 	        
-	        // Ensure there is still space in the desired room
-	        if(r.getOccupants() == r.getCapacity()){
+	        // Don't bother with a transaction if the room is already known to be full
+	        if(r.getOccupants() >= r.getCapacity()){
 	        	throw new ConflictException("Room is full");
 	        }
+	        
+	        // Make or move the reservation.  The room's occupancy counter is
+	        // checked and updated in the same transaction, so it can't be overbooked.
+	        Integer oldRoom = (current == null) ? null : current.getRoomNumber();
+	        (new ReservationHelper(pm)).reserve(current, user.getEmail(), user.getNickname(), room, r.getCapacity());
         
-	        if( current != null ) {
-	        	// change the room number of the reservation
-	        	Integer oldRoom = current.getRoomNumber();
-	            if(!floors.getRoom(oldRoom).deleteOccupant(user.getNickname())){
+	        String name = this.nameOf(user, current);
+	        if( oldRoom != null ) {
+	        	Room old = floors.getRoom(oldRoom);
+	            if(old == null || !old.deleteOccupant(name)){
 	            	Logger.getGlobal().warning("Could not delete old reservation for room "+oldRoom);
 	            } else {
 	            	Logger.getGlobal().info("Deleted old reservation for room "+oldRoom);
 	            }
-	            current.setRoomNumber(room);
-	        } else {
-		        // Make a new reservation
-		        Reservation newRes = new Reservation(user.getEmail(),user.getNickname(),room,new Date());
-	            pm.makePersistent(newRes);
 	        }
 	        
-	        r.addOccupant(user.getNickname());
+	        r.addOccupant(name);
+	        LiveOccupancy.get().add(room, 1);
+	        LiveOccupancy.get().add(oldRoom, -1);
+	        this.roomsChanged(room, oldRoom);
             return floors;
         } finally {
             pm.close();
         }
     }
     
+    /**
+     * Reserve a room for the logged in user and their roommates together, in
+     * one transaction.  Either every student gets a bed or none do.  The
+     * logged in user's reservation is moved if they have one, but roommates
+     * must not have reservations, so no one is moved without asking.  Every
+     * student's selection window must be open.  Roommates' names are left
+     * blank until they reserve the room themselves.
+     * 
+     * @param user The current user, filled automatically by the Endpoints SPI
+     * @param room The room number to reserve.
+     * @param emails the roommates' emails
+     * @return the updated list of floors
+     * @throws NotFoundException if no rooms are available or the room requested does not exist.
+     * @throws UnauthorizedException if the current user or a roommate is not authorized to reserve rooms.
+     * @throws BadRequestException if there are more students than beds in the
+     * 		room, or more roommates than one transaction can reserve
+     * @throws ConflictException if a roommate already has a room, the room
+     * 		doesn't have enough free beds, or too many other students are
+     * 		reserving it at the same time
+     * @throws ForbiddenException if a student's selection window hasn't opened yet
+     */
+    @ApiMethod(path="reserve/group/{number}", httpMethod = "PUT")
+    public FloorList reserveGroup(User user, @Named("number") Integer room, @Named("emails") List<String> emails)
+    		throws NotFoundException, UnauthorizedException, BadRequestException, ConflictException, ForbiddenException {
+        PersistenceManager pm = PMF.get().getPersistenceManager();
+        try {
+        	this.authorize(user, pm, STUDENT_PERMISSION);
+        	this.admit(user, pm);
+        	
+        	Set<String> distinct = new LinkedHashSet<String>(emails);
+        	distinct.remove(user.getEmail());
+        	if(distinct.size() > ReservationHelper.MAX_ROOMMATES) {
+        		throw new BadRequestException("At most "+ReservationHelper.MAX_ROOMMATES+" roommates can reserve together");
+        	}
+        	
+        	// start getting every roommate's permissions and reservation at once
+        	Map<String,RequestPrefetch> roommates = new LinkedHashMap<String,RequestPrefetch>();
+        	for(String email : distinct) {
+        		roommates.put(email, this.prefetch(email, true));
+        	}
+	        FloorList floors = FloorListCache.get(pm);
+	        
+        	// every roommate must be allowed to reserve now, and not have a room
+	        ReservationHelper helper = new ReservationHelper(pm);
+        	for(Map.Entry<String,RequestPrefetch> e : roommates.entrySet()) {
+        		String email = e.getKey();
+        		if(!this.rolesOf(email, pm, e.getValue()).contains(STUDENT_PERMISSION)) {
+        			throw new UnauthorizedException(email+" is not on the "+STUDENT_PERMISSION);
+        		}
+        		this.admit(email, email+"'s", pm);
+        		// migrates any old reservation, so the transaction can see it
+        		if(helper.find(email, e.getValue()) != null) {
+        			throw new ConflictException(email+" already has a room");
+        		}
+        	}
+        	
+	        if(floors == null){
+	        	throw new NotFoundException("No rooms available.");
+	        }
+	        floors = floors.copy();
+	        Room r = floors.getRoom(room);
+	        if(r == null){
+	        	throw new NotFoundException("Room does not exist");
+	        }
+	        if(roommates.size() + 1 > r.getCapacity()){
+	        	throw new BadRequestException("Room "+room+" only has "+r.getCapacity()+" beds");
+	        }
+	        
+	        Reservation current = this.getReservation(user, pm, null);
+	        List<String> others = new ArrayList<String>(roommates.keySet());
+	        helper.reserveGroup(current, user.getEmail(), user.getNickname(), others, room, r.getCapacity());
+	        
+	        // update the copy of the floors the same way, and the room the user left
+	        List<Integer> changed = new ArrayList<Integer>();
+	        changed.add(room);
+	        if(current == null || !room.equals(current.getRoomNumber())) {
+	        	if(current != null) {
+	        		changed.add(current.getRoomNumber());
+	        		LiveOccupancy.get().add(current.getRoomNumber(), -1);
+	        		Room oldRoom = floors.getRoom(current.getRoomNumber());
+	        		if(oldRoom != null) {
+	        			oldRoom.deleteOccupant(current.getFullname());
+	        		}
+	        	}
+	        	r.addOccupant(this.nameOf(user, current));
+	        	LiveOccupancy.get().add(room, 1);
+	        }
+	        for(int i = 0; i < others.size(); i++) {
+	        	r.addOccupant("");
+	        	LiveOccupancy.get().add(room, 1);
+	        }
+	        this.roomsChanged(changed.toArray(new Integer[changed.size()]));
+	        return floors;
+        } finally {
+            pm.close();
+        }
+    }
+    
     /**
      * Deletes the reservation of a user
      * 
@@ -175,29 +504,38 @@ public class Housing {
      * @return the floors with the reservation removed
      * @throws UnauthorizedException if the user is not on the student list
      * @throws NotFoundException if there are no rooms
+     * @throws ConflictException if the room is too busy to update
      */
     @ApiMethod(httpMethod = "DELETE")
-    public FloorList deleteReservation(User user) throws UnauthorizedException, NotFoundException {
+    public FloorList deleteReservation(User user) throws UnauthorizedException, NotFoundException, ConflictException {
     	PersistenceManager pm = PMF.get().getPersistenceManager();
         try {
-        	this.authorize(user, pm, STUDENT_PERMISSION);
+        	RequestPrefetch prefetch = this.prefetch(user, true);
+        	this.authorize(user, pm, prefetch, STUDENT_PERMISSION);
+	        FloorList floors = FloorListCache.get(pm);
         
-	        // Get complete list of rooms
-	        FloorList floors = (new RoomHelper(pm,true,true)).getAllFloors();
+	        if(floors == null){
+	        	throw new NotFoundException("No rooms available.");
+	        }
 	        
 	        // Check to make sure the user isn't re-reserving the same room
-	        Reservation current = this.getReservation(user, pm);
+	        Reservation current = this.getReservation(user, pm, prefetch);
 	        if(null == current){
 	        	// Nothing to do.
 	        	return floors;
 	        }
 	        
+	        // The cached list is shared, so update a copy of it
+	        floors = floors.copy();
 	        Room r = floors.getRoom(current.getRoomNumber());
 	        
-	        r.setOccupants(r.getOccupants()-1);
-	        r.getOccupantNames().remove(user.getNickname());
+	        (new ReservationHelper(pm)).cancel(current);
+	        LiveOccupancy.get().add(current.getRoomNumber(), -1);
+	        this.roomsChanged(current.getRoomNumber());
 	        
-	        pm.deletePersistent(current);
+	        if(r != null) {
+	        	r.deleteOccupant(this.nameOf(user, current));
+	        }
 	        
             return floors;
         } finally {
@@ -213,12 +551,100 @@ public class Housing {
      * @param user The currently logged-in user, filled automatically by the Endpoints SPI
      * @throws UnauthorizedException if the user is not an Admin
      * @throws NotFoundException if the operation is not successful.
+     * @throws ConflictException if another initialization is in progress
      */
     @ApiMethod(httpMethod = "POST")
-    public void initialize(User user) throws UnauthorizedException, NotFoundException {
+    public void initialize(User user) throws UnauthorizedException, NotFoundException, ConflictException {
     	PersistenceManager pm = PMF.get().getPersistenceManager();
     	authorize(user,pm,ADMIN_PERMISSION);
     	Initializer.init(pm);
+    	this.roomsReset();
+    }
+    
+    /**
+     * Converts reservations saved with numeric ids to reservations keyed by
+     * the student's email.  Each call converts up to MIGRATE_BATCH; call it
+     * until the result is complete.  Unconverted reservations still work, but
+     * finding them takes a query.
+     * 
+     * @param user The currently logged-in user, filled automatically by the Endpoints SPI
+     * @return the progress of the migration
+     * @throws UnauthorizedException if the user is not an Admin
+     */
+    @ApiMethod(path="reservations/migrate", httpMethod = "POST")
+    public Migration migrateReservations(User user) throws UnauthorizedException {
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, ADMIN_PERMISSION);
+    		return (new ReservationHelper(pm)).migrateAll(MIGRATE_BATCH);
+    	} finally {
+    		pm.close();
+    	}
+    }
+
+    /**
+     * Converts floors and rooms saved with generated ids to ones keyed by
+     * floor and room number, so they can be found with a get by key.  Each
+     * call converts up to MIGRATE_FLOORS floors; call it until the result is
+     * complete.
+     * 
+     * @param user The currently logged-in user, filled automatically by the Endpoints SPI
+     * @return the progress of the migration
+     * @throws UnauthorizedException if the user is not an Admin
+     */
+    @ApiMethod(path="rooms/migrate", httpMethod = "POST")
+    public Migration migrateRooms(User user) throws UnauthorizedException {
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, ADMIN_PERMISSION);
+    		return (new RoomHelper(pm)).migrateAll(MIGRATE_FLOORS);
+    	} finally {
+    		pm.close();
+    	}
+    }
+
+    /**
+     * Gets the latest changes to reservations: every reserve, move and
+     * cancel, newest first.
+     * 
+     * @param user The currently logged-in user, filled automatically by the Endpoints SPI
+     * @param email Only get the changes to this student's reservation
+     * @param limit The most changes to get (default 100, at most 1000)
+     * @return the changes, newest first
+     * @throws UnauthorizedException if the user is not an Admin
+     */
+    @ApiMethod(path="reservations/log", httpMethod = "GET")
+    public ReservationHistory reservationLog(User user, @Nullable @Named("email") String email,
+    		@Nullable @Named("limit") Integer limit) throws UnauthorizedException {
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, ADMIN_PERMISSION);
+    		int n = (limit == null) ? DEFAULT_EVENTS : Math.max(1, Math.min(limit, MAX_EVENTS));
+    		return new ReservationHistory((new ReservationLog(pm)).history(email, n));
+    	} finally {
+    		pm.close();
+    	}
+    }
+    
+    /**
+     * Compacts the reservation log into a new snapshot of the reservations,
+     * so rebuilding the occupants of the rooms only replays the changes made
+     * since.  A cron job also takes one as the log grows; the first one is
+     * taken from the reservations themselves.
+     * 
+     * @param user The currently logged-in user, filled automatically by the Endpoints SPI
+     * @return the time of the snapshot and the number of reservations in it
+     * @throws UnauthorizedException if the user is not an Admin
+     */
+    @ApiMethod(path="reservations/snapshot", httpMethod = "POST")
+    public OccupancySnapshot snapshotReservations(User user) throws UnauthorizedException {
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, ADMIN_PERMISSION);
+    		return (new ReservationLog(pm)).compact();
+    	} finally {
+    		pm.close();
+    	}
     }
 
 	/*
@@ -306,20 +732,19 @@ public class Housing {
 	    			r.setBgpath(bgpath);
 	    		}
 	    		// find floor to which the room will be added
-	    		Query q = pm.newQuery(Floor.class);
-	    		q.setFilter("number == floorNumber");
-	    		q.declareParameters("String floorNumber");
-	    		
-				AbstractQueryResult res = (AbstractQueryResult) q.execute(floor);
-				if(res.isEmpty()){
-	    			Floor f = new Floor();
+	    		Floor f = (new RoomHelper(pm)).findFloor(floor);
+				if(f == null){
+	    			f = new Floor();
+	    			f.setKey(Floor.keyFor(floor));
 	    			f.setNumber(floor);
+	    			r.setKey(Room.keyFor(f.key(), num));
 	    			f.getRooms().add(r);
 	    			pm.makePersistent(f);
 				} else {
-	    			Floor f = (Floor) res.get(0);
+	    			r.setKey(Room.keyFor(f.key(), num));
 	    			f.getRooms().add(r);
 				}
+	    		this.layoutChanged(num);
 	    		
 	    		return r;
     		}
@@ -368,6 +793,7 @@ public class Housing {
     		if(null != bgpath) {
     			r.setBgpath(bgpath);
     		}
+    		this.layoutChanged(number);
     		return r;
     	} finally {
     		pm.close();
@@ -393,6 +819,7 @@ public class Housing {
 	    	Room r = (new RoomHelper(pm)).getRoom(number);
 	    	Room retVal = new Room(r);
     		pm.deletePersistent(r);
+    		this.layoutChanged(number);
         	return retVal;
     	}finally{
     		pm.close();
@@ -434,7 +861,9 @@ public class Housing {
     	try {
 	    	this.authorize(user, pm, ADMIN_PERMISSION);
 	    	append = (append == null)?Boolean.FALSE:append;
-	    	return ListHelper.updateList(Housing.ROOM_LIST, pm, numbers, append);
+	    	StringList rooms = ListHelper.updateList(Housing.ROOM_LIST, pm, numbers, append);
+	    	this.roomsReset();
+	    	return rooms;
     	} finally {
     		pm.close();
     	}
@@ -475,7 +904,11 @@ public class Housing {
     	try {
 	    	this.authorize(user, pm, ADMIN_PERMISSION);
 	    	append = (append == null)?Boolean.FALSE:append;
-	    	return ListHelper.updateList(STUDENT_PERMISSION, pm, emails, append);
+	    	StringList list = ListHelper.updateList(STUDENT_PERMISSION, pm, emails, append);
+	    	PermissionCache.invalidate();
+	    	ScheduleHelper.recount(pm);
+	    	ScheduleCache.invalidate();
+	    	return list;
     	} finally {
     		pm.close();
     	}
@@ -515,7 +948,9 @@ public class Housing {
     	try {
 	    	this.authorize(user, pm, ADMIN_PERMISSION);
 	    	append = (append == null)?Boolean.FALSE:append;
-	    	return ListHelper.updateList(EDIT_PERMISSION, pm, emails, append);
+	    	StringList list = ListHelper.updateList(EDIT_PERMISSION, pm, emails, append);
+	    	PermissionCache.invalidate();
+	    	return list;
     	} finally {
     		pm.close();
     	}
@@ -558,69 +993,303 @@ public class Housing {
     	try {
 	    	this.authorize(user, pm, ADMIN_PERMISSION);
 	    	append = (append == null)?Boolean.FALSE:append;
-	    	return ListHelper.updateList(ADMIN_PERMISSION, pm, emails, append);
+	    	StringList list = ListHelper.updateList(ADMIN_PERMISSION, pm, emails, append);
+	    	PermissionCache.invalidate();
+	    	return list;
     	} finally {
     		pm.close();
     	}
     }
 
+    
+    /**
+     * Gets when the logged in student may reserve a room, and how many
+     * students are ahead of them.
+     * 
+     * @param user the currently logged-in User, filled in by the Endpoints SPI
+     * @return the student's place in the schedule
+     * @throws UnauthorizedException if user is not on the student list
+     */
+    @ApiMethod(path="selection/status", httpMethod = "GET")
+    public SelectionStatus selectionStatus(User user) throws UnauthorizedException{
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, STUDENT_PERMISSION);
+    		return new SelectionStatus(ScheduleCache.get(pm), user.getEmail(), System.currentTimeMillis());
+    	} finally {
+    		pm.close();
+    	}
+    }
+    
+    /**
+     * Gets the selection schedule.
+     * 
+     * @param user the currently logged-in User, filled in by the Endpoints SPI
+     * @return the schedule
+     * @throws NotFoundException if there is no schedule
+     * @throws UnauthorizedException if user is not allowed to perform this action
+     */
+    @ApiMethod(path="selection/schedule", httpMethod = "GET")
+    public SelectionSchedule getSchedule(User user) throws NotFoundException, UnauthorizedException{
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, EDIT_PERMISSION, ADMIN_PERMISSION);
+    		SelectionSchedule schedule = ScheduleHelper.load(pm);
+    		if(schedule == null) {
+    			throw new NotFoundException("There is no selection schedule");
+    		}
+    		return schedule;
+    	} finally {
+    		pm.close();
+    	}
+    }
+    
+    /**
+     * Limits reservations to windows.  Students are split into groups by
+     * lottery, and each group may start reserving window minutes after the
+     * group before it.  Other instances use the new schedule within 30 seconds.
+     * 
+     * @param user the currently logged-in User, filled in by the Endpoints SPI
+     * @param start when the first group may reserve, in milliseconds since the epoch
+     * @param window minutes between groups
+     * @param groups the number of groups
+     * @param salt seed for the lottery; a new one is drawn if omitted
+     * @return the saved schedule
+     * @throws BadRequestException if groups or window is not positive
+     * @throws UnauthorizedException if user is not allowed to perform this action
+     */
+    @ApiMethod(path="selection/schedule", httpMethod = "POST")
+    public SelectionSchedule updateSchedule(User user, @Named("start") Long start, @Named("window") Integer window,
+    		@Named("groups") Integer groups, @Nullable @Named("salt") String salt)
+    		throws BadRequestException, UnauthorizedException{
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, ADMIN_PERMISSION);
+    		if(groups < 1 || window < 1) {
+    			throw new BadRequestException("groups and window must be at least 1");
+    		}
+    		SelectionSchedule schedule = ScheduleHelper.save(pm, new Date(start), window, groups, salt);
+    		ScheduleCache.invalidate();
+    		return schedule;
+    	} finally {
+    		pm.close();
+    	}
+    }
+    
+    /**
+     * Removes the selection schedule, so every student may reserve at any time.
+     * 
+     * @param user the currently logged-in User, filled in by the Endpoints SPI
+     * @throws UnauthorizedException if user is not allowed to perform this action
+     */
+    @ApiMethod(path="selection/schedule", httpMethod = "DELETE")
+    public void deleteSchedule(User user) throws UnauthorizedException{
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, ADMIN_PERMISSION);
+    		ScheduleHelper.delete(pm);
+    		ScheduleCache.invalidate();
+    	} finally {
+    		pm.close();
+    	}
+    }
+    
+    /**
+     * Gets latency and datastore usage for each API method, as measured by the
+     * instance that handles this request since it started.
+     * 
+     * @param user the currently logged-in User, filled in by the Endpoints SPI
+     * @return the stats of this instance
+     * @throws UnauthorizedException if user is not allowed to perform this action
+     */
+    @ApiMethod(path="stats", httpMethod = "GET")
+    public StatsReport stats(User user) throws UnauthorizedException{
+    	PersistenceManager pm = PMF.get().getPersistenceManager();
+    	try {
+    		this.authorize(user, pm, ADMIN_PERMISSION);
+    	} finally {
+    		pm.close();
+    	}
+    	StatsReport report = new StatsReport();
+    	report.setStarted(Metrics.getStarted());
+    	report.setEndpoints(Metrics.report());
+    	report.setReservationCommits(ReservationHelper.getCommits());
+    	report.setReservationConflicts(ReservationHelper.getConflicts());
+    	report.setReservationRetries(ReservationHelper.getRetries());
+    	report.setReservationFailures(ReservationHelper.getFailures());
+    	return report;
+    }
+
 
     // -------------------------------------------------------- //
     // ------------------ END PUBLIC API ---------------------- //
     // -------------------------------------------------------- //
 
-	// modularize the reservation query so it can be used by multiple API functions
-	private Reservation getReservation(User user, PersistenceManager pm) {
+	// find the rooms changed after since, up to version
+	private RoomChanges getChanges(Long since, long version, PersistenceManager pm) throws NotFoundException {
+		RoomChanges changes = new RoomChanges(version);
+		if( since != null && since >= version ) {
+			// Nothing has changed
+			return changes;
+		}
+		
+		FloorList floors = FloorListCache.get(pm);
+		if( floors == null || floors.getFloors().size() == 0 ) {
+			throw new NotFoundException("No rooms available.");
+		}
+		Set<Integer> changed = (since == null) ? null : RoomChangeLog.since(since, version);
+		if( changed == null ) {
+			changes.setFloors(floors);
+		} else {
+			for( Integer number : changed ) {
+				Room r = floors.getRoom(number);
+				if( r != null ) {
+					changes.getRooms().add(r);
+				} else {
+					changes.getRemoved().add(number);
+				}
+			}
+		}
+		return changes;
+	}
+	
+	// discard cached floors, record the change for clients polling for changes
+	// and wake up clients waiting for them
+	private void roomsChanged(Integer... rooms) {
+		FloorListCache.invalidate();
+		ChangeBus.get().publish(RoomChangeLog.record(rooms));
+	}
+	
+	// like roomsChanged, for changes to the rooms themselves rather than
+	// their occupants
+	private void layoutChanged(Integer... rooms) {
+		LayoutCache.invalidate();
+		this.roomsChanged(rooms);
+	}
+	
+	// like layoutChanged, for changes that could affect any room
+	private void roomsReset() {
+		LayoutCache.invalidate();
+		FloorListCache.invalidate();
+		ChangeBus.get().publish(RoomChangeLog.reset());
+	}
+	
+	// the name a reservation shows; a moved reservation keeps its name
+	private String nameOf(User user, Reservation current) {
+		return (current == null) ? user.getNickname() : current.getFullname();
+	}
+	
+	// modularize the reservation lookup so it can be used by multiple API functions
+	private Reservation getReservation(User user, PersistenceManager pm, RequestPrefetch prefetch) {
 		if(null == user){
 			return null;
 		}
-		Query q = pm.newQuery(Reservation.class);
-        q.setFilter("user == currentUser");
-        q.declareParameters("String currentUser");
-
-        try {
-            AbstractQueryResult res = (AbstractQueryResult) q.execute(user.getEmail());
-            if(res.size() == 0){
-                return null;
-            }else{
-            	return (Reservation) res.get(0);
-            }
-        } finally {
-            q.closeAll();
-        }
+		return (new ReservationHelper(pm)).find(user.getEmail(), prefetch);
 	}
 	
-    private void authorize(User user, PersistenceManager pm, String... permission) throws UnauthorizedException {
-		boolean authorized = false;
+	// start getting what authorize and getReservation will need, so it
+	// overlaps with loading the floors
+	private RequestPrefetch prefetch(User user, boolean reservation) {
+		if(user == null){
+			return null;
+		}
+		return this.prefetch(user.getEmail(), reservation);
+	}
+	
+	// memberships are only fetched if the permission cache can't answer
+	private RequestPrefetch prefetch(String email, boolean reservation) {
+		if(email == null){
+			return null;
+		}
+		boolean cached = PermissionCache.get(email, PermissionCache.version()) != null;
+		if(cached && !reservation){
+			return null;
+		}
+		return RequestPrefetch.start(email, reservation, cached ? new String[0] : PERMISSION_LISTS);
+	}
+	
+    // reject students whose selection window hasn't opened yet
+    private void admit(User user, PersistenceManager pm) throws ForbiddenException {
+    	this.admit(user.getEmail(), "Your", pm);
+    }
+    
+    // like admit, for a student other than the user; whose names them in the message
+    private void admit(String email, String whose, PersistenceManager pm) throws ForbiddenException {
+    	SelectionSchedule schedule = ScheduleCache.get(pm);
+    	long wait = schedule.waitMillis(email, System.currentTimeMillis());
+    	if(wait > 0) {
+    		Date opens = new Date(schedule.windowStart(schedule.groupOf(email)));
+    		throw new ForbiddenException(whose+" selection window opens in "+((wait + 59999) / 60000)+" minutes, at "+opens);
+    	}
+    }
+    
+    void authorize(User user, PersistenceManager pm, String... permission) throws UnauthorizedException {
+    	this.authorize(user, pm, null, permission);
+    }
+    
+    // like authorize, using the memberships fetched by prefetch if they are needed
+    private void authorize(User user, PersistenceManager pm, RequestPrefetch prefetch, String... permission)
+    		throws UnauthorizedException {
 		String email = "";
     	if(user != null && user.getEmail() != null){
     		email = user.getEmail();
     		if(email.equals("example@example.com")) { // dev server
     			return;
     		}
+    		Set<String> roles = this.rolesOf(email, pm, prefetch);
     		for( String list : permission){
-	    		try {
-	    			StringList emails = ListHelper.getList(list,pm);
-	    			authorized = (emails.getStrings() != null) && emails.getStrings().contains(email);
-					if( !authorized && list.equals(ADMIN_PERMISSION) ){
-						authorized = 0 <= Arrays.binarySearch(DEFAULT_ADMINS, email);
-					}
-					// break out of loop
-					if(authorized) {
-						return;
-					}
-	    		} catch (NotFoundException e) {
-	    			Logger l = Logger.getLogger(this.getClass().getName());
-	    			l.log(Level.INFO, "Could not authorize "+email+" list "+list+" not found.", e);
-	    		}
+    			if(roles.contains(list)) {
+    				return;
+    			}
 	    	}
 		}
-    	//TODO: remove for production
-    	//authorized = true;
-		if( !authorized ){
-			String lists = Arrays.deepToString(permission);
-			throw new UnauthorizedException("You ("+email+") must be on one of "+lists+" to perform this action");
-		}
+		String lists = Arrays.deepToString(permission);
+		throw new UnauthorizedException("You ("+email+") must be on one of "+lists+" to perform this action");
 	}
+    
+    // the permission lists that contain the email, cached
+    private Set<String> rolesOf(String email, PersistenceManager pm, RequestPrefetch prefetch) {
+    	long version = PermissionCache.version();
+    	Set<String> roles = PermissionCache.get(email, version);
+    	if(roles == null) {
+    		roles = this.resolveRoles(email, pm, prefetch);
+    		PermissionCache.put(email, version, roles);
+    	}
+    	return roles;
+    }
+    
+    // find every permission list that contains the email, using the
+    // membership index and loading only the lists that aren't indexed
+    private Set<String> resolveRoles(String email, PersistenceManager pm, RequestPrefetch prefetch) {
+    	Set<String> roles = new HashSet<String>();
+    	Map<String,Boolean> indexed = null;
+    	if(prefetch != null && email.equals(prefetch.getEmail())) {
+    		indexed = prefetch.memberships();
+    	}
+    	if(indexed == null) {
+    		indexed = ListHelper.memberships(email, PERMISSION_LISTS);
+    	}
+    	for( String list : PERMISSION_LISTS){
+    		boolean authorized = false;
+    		if(indexed.containsKey(list)) {
+    			authorized = indexed.get(list);
+    		} else {
+    			try {
+    				StringList emails = ListHelper.getList(list,pm);
+    				authorized = (emails.getStrings() != null) && emails.getStrings().contains(email);
+    			} catch (NotFoundException e) {
+    				Logger l = Logger.getLogger(this.getClass().getName());
+    				l.log(Level.INFO, "Could not authorize "+email+" list "+list+" not found.", e);
+    			}
+    		}
+    		if( !authorized && list.equals(ADMIN_PERMISSION) ){
+    			authorized = 0 <= Arrays.binarySearch(DEFAULT_ADMINS, email);
+    		}
+    		if(authorized) {
+    			roles.add(list);
+    		}
+    	}
+    	return roles;
+    }
 
 }
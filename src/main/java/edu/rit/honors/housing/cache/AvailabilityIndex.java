@@ -0,0 +1,133 @@
+package edu.rit.honors.housing.cache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.rit.honors.housing.jdo.FloorLayout;
+
+/**
+ * Bitsets over the rooms of a building, in BuildingLayout.indexOf order, for
+ * finding rooms by floor, capacity and free beds without looking at each
+ * room.  The rooms of a floor are a contiguous range of bits.
+ * 
+ * The capacity bitsets never change.  The free bed bitsets are updated with
+ * compare-and-set on each word, so searches don't wait for reservations.
+ */
+class AvailabilityIndex {
+	
+	private final int size;
+	
+	// the rooms of floor f are the bits from floorStart[f] to floorStart[f + 1]
+	private final Map<String, Integer> floors = new HashMap<String, Integer>();
+	private final int[] floorStart;
+	
+	// byCapacity[c] has the rooms with c beds
+	private final long[][] byCapacity;
+	
+	// atLeastFree[k] has the rooms with k or more free beds, so [0] is every room
+	private final AtomicLongArray[] atLeastFree;
+	
+	/**
+	 * @param layout the floors of the building
+	 * @param capacity the beds in each room
+	 * @param free the free beds in each room
+	 */
+	AvailabilityIndex(List<FloorLayout> layout, int[] capacity, int[] free) {
+		this.size = capacity.length;
+		this.floorStart = new int[layout.size() + 1];
+		for(int f = 0; f < layout.size(); f++) {
+			this.floors.put(layout.get(f).getNumber(), f);
+			this.floorStart[f + 1] = this.floorStart[f] + layout.get(f).getRooms().length;
+		}
+		int max = 0;
+		for(int c : capacity) {
+			max = Math.max(max, c);
+		}
+		int words = (this.size + 63) >>> 6;
+		this.byCapacity = new long[max + 1][words];
+		this.atLeastFree = new AtomicLongArray[max + 1];
+		for(int c = 0; c <= max; c++) {
+			this.atLeastFree[c] = new AtomicLongArray(words);
+		}
+		for(int i = 0; i < this.size; i++) {
+			this.byCapacity[capacity[i]][i >>> 6] |= 1L << i;
+			this.update(i, free[i]);
+		}
+	}
+	
+	/**
+	 * Set the bits of a room for its number of free beds.  Calls for the same
+	 * room must be made in the order its free beds changed, or repeated
+	 * until its free beds are known not to have changed.
+	 */
+	void update(int i, int free) {
+		for(int k = 0; k < this.atLeastFree.length; k++) {
+			set(this.atLeastFree[k], i, k <= free);
+		}
+	}
+	
+	/**
+	 * @param floor the floor number, or null for any floor
+	 * @param capacity the number of beds, or null for any
+	 * @param minFree the fewest free beds
+	 * @return the indexes of the matching rooms, in order
+	 */
+	int[] find(String floor, Integer capacity, int minFree) {
+		int from = 0;
+		int to = this.size;
+		if(floor != null) {
+			Integer f = this.floors.get(floor);
+			if(f == null) {
+				return new int[0];
+			}
+			from = this.floorStart[f];
+			to = this.floorStart[f + 1];
+		}
+		if(from >= to || minFree >= this.atLeastFree.length
+				|| (capacity != null && (capacity < 0 || capacity >= this.byCapacity.length))) {
+			return new int[0];
+		}
+		
+		AtomicLongArray free = this.atLeastFree[Math.max(0, minFree)];
+		int first = from >>> 6;
+		long[] match = new long[((to - 1) >>> 6) - first + 1];
+		int count = 0;
+		for(int w = 0; w < match.length; w++) {
+			long bits = free.get(first + w);
+			if(capacity != null) {
+				bits &= this.byCapacity[capacity][first + w];
+			}
+			match[w] = bits;
+		}
+		// drop the rooms outside the floor from the first and last words
+		match[0] &= -1L << from;
+		match[match.length - 1] &= -1L >>> (63 - ((to - 1) & 63));
+		for(long bits : match) {
+			count += Long.bitCount(bits);
+		}
+		
+		int[] rooms = new int[count];
+		int n = 0;
+		for(int w = 0; w < match.length; w++) {
+			for(long bits = match[w]; bits != 0; bits &= bits - 1) {
+				rooms[n++] = ((first + w) << 6) + Long.numberOfTrailingZeros(bits);
+			}
+		}
+		return rooms;
+	}
+	
+	private static void set(AtomicLongArray words, int i, boolean on) {
+		int w = i >>> 6;
+		long bit = 1L << i;
+		while(true) {
+			long old = words.get(w);
+			long next = on ? (old | bit) : (old & ~bit);
+			if(old == next || words.compareAndSet(w, old, next)) {
+				return;
+			}
+		}
+	}
+
+}
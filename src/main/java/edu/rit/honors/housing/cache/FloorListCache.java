@@ -0,0 +1,131 @@
+package edu.rit.honors.housing.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jdo.PersistenceManager;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import edu.rit.honors.housing.datastore.ReservationHelper;
+import edu.rit.honors.housing.datastore.RoomHelper;
+import edu.rit.honors.housing.jdo.Floor;
+import edu.rit.honors.housing.jdo.FloorList;
+import edu.rit.honors.housing.jdo.Room;
+
+/**
+ * Caches the FloorList computed by RoomHelper.getAllFloors, with room
+ * availability and occupants filled in.
+ * 
+ * Snapshots are stored in memcache under the current version of the list, and
+ * the most recent ones are also kept in memory on each instance.  Anything that
+ * changes rooms, the room list or reservations must call invalidate, which
+ * moves every instance on to a new version.
+ * 
+ * Occupant names come from eventually consistent queries, so the number of
+ * occupants of each room is checked against its RoomOccupancy counter when the
+ * list is built.  A list that disagreed with the counters is only shared for
+ * a short time, until the queries catch up.
+ * 
+ * The FloorList returned is shared with other requests and must not be
+ * modified; use FloorList.copy first.
+ */
+public class FloorListCache {
+	
+	private static final String KEY_PREFIX = "FloorList@";
+	private static final int EXPIRATION_SECONDS = 10 * 60;
+	private static final int UNSETTLED_SECONDS = 30;
+	private static final int LOCAL_SIZE = 4;
+	private static final long LOCAL_TTL = 60 * 1000;
+	
+	private static final VersionStamp VERSION = new VersionStamp("FloorList");
+	private static final LocalCache<Long, FloorList> LOCAL = new LocalCache<Long, FloorList>(LOCAL_SIZE, LOCAL_TTL);
+	
+	/**
+	 * Get the current list of available floors, building it from the datastore
+	 * only if no instance has cached the current version.
+	 * 
+	 * @param pm used to build the list if it isn't cached
+	 * @return the floors, or null if there are none
+	 */
+	public static FloorList get(PersistenceManager pm) {
+		long version = VERSION.current();
+		FloorList floors = LOCAL.get(version);
+		if(floors != null) {
+			return floors;
+		}
+		
+		String key = KEY_PREFIX + version;
+		floors = getShared(key);
+		if(floors == null) {
+			floors = (new RoomHelper(pm,true,true)).getAllFloors();
+			if(floors == null) {
+				// Don't cache an empty building; it is about to be initialized
+				return null;
+			}
+			putShared(key, floors, settle(floors, pm) ? EXPIRATION_SECONDS : UNSETTLED_SECONDS);
+		}
+		LOCAL.put(version, floors);
+		return floors;
+	}
+	
+	/**
+	 * Discard the cached list on every instance.  Call after any change to
+	 * rooms, floors, the room list or reservations.
+	 */
+	public static void invalidate() {
+		LOCAL.clear();
+		VERSION.bump();
+	}
+	
+	private static FloorList getShared(String key) {
+		try {
+			return (FloorList) MemcacheServiceFactory.getMemcacheService().get(key);
+		} catch (RuntimeException e) {
+			Logger.getGlobal().log(Level.WARNING, "Could not read "+key+" from memcache", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Correct the number of occupants of every room from its counter.
+	 * 
+	 * @return true if every room already agreed with its counter
+	 */
+	private static boolean settle(FloorList floors, PersistenceManager pm) {
+		List<Integer> numbers = new ArrayList<Integer>();
+		for(Floor f : floors.getFloors()) {
+			for(Room r : f.getRooms()) {
+				if(r.getNumber() != null) {
+					numbers.add(r.getNumber());
+				}
+			}
+		}
+		Map<Integer,Integer> counters = (new ReservationHelper(pm)).getCounters(numbers);
+		boolean settled = true;
+		for(Floor f : floors.getFloors()) {
+			for(Room r : f.getRooms()) {
+				Integer n = (r.getNumber() == null) ? null : counters.get(r.getNumber());
+				if(n != null && !n.equals(r.getOccupants())) {
+					r.setOccupants(n);
+					settled = false;
+				}
+			}
+		}
+		return settled;
+	}
+	
+	private static void putShared(String key, FloorList floors, int expirationSeconds) {
+		try {
+			MemcacheServiceFactory.getMemcacheService().put(key, floors,
+					Expiration.byDeltaSeconds(expirationSeconds));
+		} catch (RuntimeException e) {
+			Logger.getGlobal().log(Level.WARNING, "Could not write "+key+" to memcache", e);
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+package edu.rit.honors.housing.cache;
+
+import javax.jdo.PersistenceManager;
+
+import edu.rit.honors.housing.datastore.RoomHelper;
+import edu.rit.honors.housing.jdo.BuildingLayout;
+
+/**
+ * Keeps the BuildingLayout of the available rooms in memory on each instance,
+ * so that it is only read from the datastore after it changes.
+ * 
+ * Creating, updating or deleting rooms, initializing, or changing the room
+ * list must call invalidate.
+ */
+public class LayoutCache {
+	
+	private static final long TTL = 60 * 60 * 1000;
+	
+	private static final VersionStamp VERSION = new VersionStamp("Layout");
+	private static final LocalCache<Long, BuildingLayout> LOCAL = new LocalCache<Long, BuildingLayout>(2, TTL);
+	
+	/**
+	 * @param pm used to load the layout if it isn't cached
+	 * @return the layout of the available rooms
+	 */
+	public static BuildingLayout get(PersistenceManager pm) {
+		long version = VERSION.current();
+		BuildingLayout layout = LOCAL.get(version);
+		if(layout == null) {
+			layout = (new RoomHelper(pm,true,false)).loadLayout();
+			LOCAL.put(version, layout);
+		}
+		return layout;
+	}
+	
+	/**
+	 * Discard the layout on every instance.
+	 */
+	public static void invalidate() {
+		LOCAL.clear();
+		VERSION.bump();
+	}
+
+}
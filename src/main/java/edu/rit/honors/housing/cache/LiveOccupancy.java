@@ -0,0 +1,391 @@
+package edu.rit.honors.housing.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jdo.PersistenceManager;
+
+import edu.rit.honors.housing.datastore.ReservationHelper;
+import edu.rit.honors.housing.datastore.ReservationLog;
+import edu.rit.honors.housing.datastore.ReservationQueries;
+import edu.rit.honors.housing.jdo.BuildingLayout;
+import edu.rit.honors.housing.jdo.FloorLayout;
+import edu.rit.honors.housing.jdo.FloorSummary;
+import edu.rit.honors.housing.jdo.OccupancySummary;
+import edu.rit.honors.housing.jdo.RoomAvailability;
+import edu.rit.honors.housing.jdo.RoomSearch;
+
+/**
+ * Keeps the number of occupants of every available room in memory on each
+ * instance, along with the free beds on each floor, so that finding out where
+ * there is space left doesn't read any reservations.
+ * 
+ * Reservations made on this instance are added as they commit.  Changes made
+ * on other instances are found through RoomChangeLog, and only the counters
+ * of the rooms that changed are read again.  When the layout changes, the
+ * occupants of rooms that are still available are kept.  If the change log
+ * has a gap, everything is rebuilt from the RoomOccupancy counters.
+ * 
+ * Rooms are searched with an AvailabilityIndex, which is updated along with
+ * the occupants.
+ * 
+ * Readers never wait on the datastore: the state for a layout is published
+ * through a volatile field, and its occupants and totals are atomic.  One
+ * request at a time brings it up to date, and requests that arrive
+ * meanwhile use the state as it is.
+ */
+public class LiveOccupancy {
+	
+	/** The orders search can sort rooms in; the layout order is the default */
+	public static final String SORT_FLOOR = "floor";
+	public static final String SORT_NUMBER = "number";
+	public static final String SORT_CAPACITY = "capacity";
+	public static final String SORT_FREE = "free";
+	public static final List<String> SORTS = Collections.unmodifiableList(
+			Arrays.asList(SORT_FLOOR, SORT_NUMBER, SORT_CAPACITY, SORT_FREE));
+	
+	private static final LiveOccupancy INSTANCE = new LiveOccupancy();
+	
+	private volatile State state;
+	
+	// held while reading from the datastore to bring the state up to date
+	private final ReentrantLock refreshing = new ReentrantLock();
+	
+	/**
+	 * @return the occupancy shared by every request on this instance
+	 */
+	public static LiveOccupancy get() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Bring the occupancy up to date and total the free beds on each floor.
+	 * Takes time proportional to the number of floors, plus the rooms that
+	 * changed since the last call.
+	 * 
+	 * @param pm used to read the layout and any counters that changed
+	 * @return the free beds on each floor and in the building
+	 */
+	public OccupancySummary summary(PersistenceManager pm) {
+		State s = this.sync(pm);
+		OccupancySummary summary = new OccupancySummary(s.layout.getVersion(), s.version);
+		List<FloorLayout> floors = s.layout.getFloors();
+		int width = 0;
+		for(AtomicIntegerArray counts : s.roomsByFree) {
+			width = Math.max(width, counts.length());
+		}
+		int rooms = 0;
+		int beds = 0;
+		int free = 0;
+		int[] byFree = new int[width];
+		for(int f = 0; f < floors.size(); f++) {
+			int[] counts = new int[s.roomsByFree[f].length()];
+			for(int i = 0; i < counts.length; i++) {
+				counts[i] = s.roomsByFree[f].get(i);
+				byFree[i] += counts[i];
+			}
+			int n = floors.get(f).getRooms().length;
+			int floorFree = s.free.get(f);
+			summary.getFloors().add(new FloorSummary(floors.get(f).getNumber(), n,
+					s.beds[f], floorFree, counts[0], counts));
+			rooms += n;
+			beds += s.beds[f];
+			free += floorFree;
+		}
+		summary.setBuilding(new FloorSummary(null, rooms, beds, free, (width == 0) ? 0 : byFree[0], byFree));
+		return summary;
+	}
+	
+	/**
+	 * Bring the occupancy up to date and find the rooms matching a search.
+	 * 
+	 * @param pm used to read the layout and any counters that changed
+	 * @param floor the floor number, or null for any floor
+	 * @param capacity the number of beds, or null for any
+	 * @param minFree the fewest free beds, or null for any
+	 * @param sort one of SORTS, or null for the layout order
+	 * @return the matching rooms
+	 */
+	public RoomSearch search(PersistenceManager pm, String floor, Integer capacity,
+			Integer minFree, String sort) {
+		final State s = this.sync(pm);
+		int[] found = s.index.find(floor, capacity, (minFree == null) ? 0 : minFree);
+		Integer[] order = new Integer[found.length];
+		for(int i = 0; i < found.length; i++) {
+			order[i] = found[i];
+		}
+		if(sort != null && !SORT_FLOOR.equals(sort)) {
+			Arrays.sort(order, comparator(s, sort));
+		}
+		
+		RoomSearch search = new RoomSearch(s.layout.getVersion(), s.version);
+		List<FloorLayout> floors = s.layout.getFloors();
+		for(int i : order) {
+			int occupants = s.occupants.get(i);
+			search.getRooms().add(new RoomAvailability(s.numbers[i], floors.get(s.floorOf[i]).getNumber(),
+					s.capacity[i], occupants, s.freeBeds(i, occupants)));
+		}
+		return search;
+	}
+	
+	/**
+	 * Record a committed change to the occupants of a room.  Call before the
+	 * change is recorded in RoomChangeLog, so that an update from the log
+	 * can't be overwritten by an older one.
+	 * 
+	 * @param room the room number; ignored if null or not available
+	 * @param delta the number of occupants added, or removed if negative
+	 */
+	public void add(Integer room, int delta) {
+		State s = this.state;
+		if(s == null || room == null) {
+			return;
+		}
+		int i = s.layout.indexOf(room);
+		if(i >= 0) {
+			s.add(i, delta);
+		}
+	}
+	
+	// orders room indexes by a sort, then by room number; free beds are read
+	// once, so a room changing during the sort can't break the order
+	private static Comparator<Integer> comparator(final State s, final String sort) {
+		final int[] free = new int[s.numbers.length];
+		if(SORT_FREE.equals(sort)) {
+			for(int i = 0; i < free.length; i++) {
+				free[i] = s.freeBeds(i, s.occupants.get(i));
+			}
+		}
+		return new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int c = 0;
+				if(SORT_CAPACITY.equals(sort)) {
+					c = compare(s.capacity[a], s.capacity[b]);
+				} else if(SORT_FREE.equals(sort)) {
+					// most free beds first
+					c = compare(free[b], free[a]);
+				}
+				return (c != 0) ? c : compare(s.numbers[a], s.numbers[b]);
+			}
+			
+			private int compare(int a, int b) {
+				return (a < b) ? -1 : ((a == b) ? 0 : 1);
+			}
+		};
+	}
+	
+	/**
+	 * @return the latest state; only waits if there is none yet, or this
+	 * 		request brings it up to date
+	 */
+	private State sync(PersistenceManager pm) {
+		State s = this.state;
+		if(s == null) {
+			this.refreshing.lock();
+		} else if(!this.refreshing.tryLock()) {
+			// another request is bringing it up to date
+			return s;
+		}
+		try {
+			s = this.state;
+			// read first, so changes made while loading are read again next time
+			long version = RoomChangeLog.current();
+			BuildingLayout layout = LayoutCache.get(pm);
+			Set<Integer> changed = (s == null) ? null
+					: (version > s.version) ? RoomChangeLog.since(s.version, version)
+					: Collections.<Integer>emptySet();
+			if(changed == null) {
+				s = rebuild(layout, pm);
+			} else {
+				if(!layout.getVersion().equals(s.layout.getVersion())) {
+					s = relayout(s, layout, pm);
+				}
+				refresh(s, changed, pm);
+			}
+			s.version = version;
+			this.state = s;
+			return s;
+		} finally {
+			this.refreshing.unlock();
+		}
+	}
+	
+	// reads every counter; rooms that have never had one are counted from
+	// the reservation log
+	private static State rebuild(BuildingLayout layout, PersistenceManager pm) {
+		Map<Integer,Integer> counters = (new ReservationHelper(pm)).getCounters();
+		Map<Integer,List<String>> uncounted = null;
+		int[] occupants = new int[layout.size()];
+		int i = 0;
+		for(FloorLayout f : layout.getFloors()) {
+			for(int number : f.getRooms()) {
+				Integer n = counters.get(number);
+				if(n == null) {
+					if(uncounted == null) {
+						uncounted = (new ReservationLog(pm)).occupantsByRoom();
+					}
+					List<String> names = uncounted.get(number);
+					n = (names == null) ? 0 : names.size();
+				}
+				occupants[i++] = n;
+			}
+		}
+		return new State(layout, occupants);
+	}
+	
+	// keeps the occupants of rooms in both layouts, and reads the rest
+	private static State relayout(State old, BuildingLayout layout, PersistenceManager pm) {
+		int[] occupants = new int[layout.size()];
+		List<Integer> added = new ArrayList<Integer>();
+		int i = 0;
+		for(FloorLayout f : layout.getFloors()) {
+			for(int number : f.getRooms()) {
+				int before = old.layout.indexOf(number);
+				if(before >= 0) {
+					occupants[i] = old.occupants.get(before);
+				} else {
+					added.add(number);
+				}
+				i++;
+			}
+		}
+		if(!added.isEmpty()) {
+			Map<Integer,Integer> counters = (new ReservationHelper(pm)).getCounters(added);
+			for(Integer number : added) {
+				Integer n = counters.get(number);
+				occupants[layout.indexOf(number)] = (n == null) ? ReservationQueries.count(number) : n;
+			}
+		}
+		return new State(layout, occupants);
+	}
+	
+	// reads the counters of the rooms that changed on other instances
+	private static void refresh(State s, Collection<Integer> changed, PersistenceManager pm) {
+		List<Integer> rooms = new ArrayList<Integer>(changed.size());
+		for(Integer number : changed) {
+			if(s.layout.contains(number)) {
+				rooms.add(number);
+			}
+		}
+		if(rooms.isEmpty()) {
+			return;
+		}
+		Map<Integer,Integer> counters = (new ReservationHelper(pm)).getCounters(rooms);
+		for(Map.Entry<Integer,Integer> e : counters.entrySet()) {
+			s.set(s.layout.indexOf(e.getKey()), e.getValue());
+		}
+	}
+	
+	/**
+	 * The occupancy of the rooms in one layout.  Everything but the occupants,
+	 * the totals that depend on them and the version is fixed when it is
+	 * built.  Totals are updated by adding the change, so updates can be
+	 * applied in any order.
+	 */
+	private static class State {
+		
+		final BuildingLayout layout;
+		
+		// the latest room change reflected
+		volatile long version;
+		
+		// by BuildingLayout.indexOf
+		final int[] numbers;
+		final int[] capacity;
+		final int[] floorOf;
+		final AtomicIntegerArray occupants;
+		final AvailabilityIndex index;
+		
+		// by floor
+		final int[] beds;
+		final AtomicIntegerArray free;
+		final AtomicIntegerArray[] roomsByFree;
+		
+		State(BuildingLayout layout, int[] occupants) {
+			List<FloorLayout> floors = layout.getFloors();
+			this.layout = layout;
+			this.numbers = new int[occupants.length];
+			this.capacity = new int[occupants.length];
+			this.floorOf = new int[occupants.length];
+			this.beds = new int[floors.size()];
+			int[] totals = new int[floors.size()];
+			this.roomsByFree = new AtomicIntegerArray[floors.size()];
+			int[] free = new int[occupants.length];
+			int i = 0;
+			for(int f = 0; f < floors.size(); f++) {
+				int[] numbers = floors.get(f).getRooms();
+				int[] capacity = floors.get(f).getCapacity();
+				int max = 0;
+				for(int c : capacity) {
+					max = Math.max(max, c);
+				}
+				int[] byFree = new int[max + 1];
+				for(int r = 0; r < capacity.length; r++, i++) {
+					occupants[i] = Math.max(0, occupants[i]);
+					this.numbers[i] = numbers[r];
+					this.capacity[i] = Math.max(0, capacity[r]);
+					this.floorOf[i] = f;
+					this.beds[f] += this.capacity[i];
+					free[i] = this.freeBeds(i, occupants[i]);
+					totals[f] += free[i];
+					byFree[free[i]]++;
+				}
+				this.roomsByFree[f] = new AtomicIntegerArray(byFree);
+			}
+			this.free = new AtomicIntegerArray(totals);
+			this.occupants = new AtomicIntegerArray(occupants);
+			this.index = new AvailabilityIndex(floors, this.capacity, free);
+		}
+		
+		void add(int i, int delta) {
+			while(true) {
+				int before = this.occupants.get(i);
+				int after = Math.max(0, before + delta);
+				if(this.occupants.compareAndSet(i, before, after)) {
+					this.changed(i, before, after);
+					return;
+				}
+			}
+		}
+		
+		void set(int i, int occupants) {
+			int after = Math.max(0, occupants);
+			this.changed(i, this.occupants.getAndSet(i, after), after);
+		}
+		
+		int freeBeds(int i, int occupants) {
+			return Math.max(0, this.capacity[i] - occupants);
+		}
+		
+		private void changed(int i, int before, int after) {
+			int was = this.freeBeds(i, before);
+			int now = this.freeBeds(i, after);
+			if(was == now) {
+				return;
+			}
+			int f = this.floorOf[i];
+			this.free.addAndGet(f, now - was);
+			this.roomsByFree[f].decrementAndGet(was);
+			this.roomsByFree[f].incrementAndGet(now);
+			
+			// the bits are set, not moved, so a concurrent change could leave
+			// them behind; set them again until the occupants hold still
+			int current;
+			do {
+				current = this.occupants.get(i);
+				this.index.update(i, this.freeBeds(i, current));
+			} while(this.occupants.get(i) != current);
+		}
+		
+	}
+
+}
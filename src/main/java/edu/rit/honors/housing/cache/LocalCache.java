@@ -0,0 +1,74 @@
+package edu.rit.honors.housing.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small in-process cache with a bounded number of entries and a time to
+ * live.  The least recently used entry is evicted when the cache is full.
+ * 
+ * Instances are shared between request threads, so every method is synchronized.
+ */
+public class LocalCache<K, V> {
+	
+	private final long ttl;
+	private final LinkedHashMap<K, Item<V>> items;
+	
+	/**
+	 * @param maxSize the maximum number of entries to keep
+	 * @param ttl how long an entry stays valid, in milliseconds
+	 */
+	public LocalCache(final int maxSize, long ttl) {
+		this.ttl = ttl;
+		this.items = new LinkedHashMap<K, Item<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Item<V>> eldest) {
+				return this.size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * @return the cached value, or null if it is missing or expired
+	 */
+	public synchronized V get(K key) {
+		Item<V> item = this.items.get(key);
+		if(item == null) {
+			return null;
+		} else if(item.expires < System.currentTimeMillis()) {
+			this.items.remove(key);
+			return null;
+		} else {
+			return item.value;
+		}
+	}
+	
+	public synchronized void put(K key, V value) {
+		this.items.put(key, new Item<V>(value, System.currentTimeMillis() + this.ttl));
+	}
+	
+	public synchronized void remove(K key) {
+		this.items.remove(key);
+	}
+	
+	public synchronized void clear() {
+		this.items.clear();
+	}
+	
+	public synchronized int size() {
+		return this.items.size();
+	}
+	
+	private static class Item<V> {
+		final V value;
+		final long expires;
+		
+		Item(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package edu.rit.honors.housing.cache;
+
+import java.util.Set;
+
+/**
+ * Remembers which permission lists each email address is on, so that
+ * authorizing a request doesn't have to load the lists again.
+ * 
+ * Entries are kept per instance for a limited time and are tagged with the
+ * version of the lists they were resolved against.  Updating any permission
+ * list must call invalidate, which discards every entry on every instance.
+ */
+public class PermissionCache {
+	
+	private static final int MAX_SIZE = 5000;
+	private static final long TTL = 10 * 60 * 1000;
+	
+	private static final VersionStamp VERSION = new VersionStamp("Permissions");
+	private static final LocalCache<String, Roles> ROLES = new LocalCache<String, Roles>(MAX_SIZE, TTL);
+	
+	/**
+	 * @return the current version of the permission lists, to pass to get and put
+	 */
+	public static long version() {
+		return VERSION.current();
+	}
+	
+	/**
+	 * @param email the address to look up
+	 * @param version the current version of the permission lists
+	 * @return the names of the lists the email is on, or null if not cached
+	 */
+	public static Set<String> get(String email, long version) {
+		Roles r = ROLES.get(email);
+		if(r == null || r.version != version) {
+			return null;
+		}
+		return r.lists;
+	}
+	
+	/**
+	 * @param email the address that was resolved
+	 * @param version the version of the permission lists read to resolve it
+	 * @param lists the names of the lists the email is on
+	 */
+	public static void put(String email, long version, Set<String> lists) {
+		ROLES.put(email, new Roles(version, lists));
+	}
+	
+	/**
+	 * Discard all cached permissions on every instance.  Call after changing
+	 * any permission list.
+	 */
+	public static void invalidate() {
+		ROLES.clear();
+		VERSION.bump();
+	}
+	
+	private static class Roles {
+		final long version;
+		final Set<String> lists;
+		
+		Roles(long version, Set<String> lists) {
+			this.version = version;
+			this.lists = lists;
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package edu.rit.honors.housing.cache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * A sequence of room changes shared by every instance through memcache.
+ * 
+ * Every change to a room's occupancy or metadata takes the next number in the
+ * sequence and stores the room number under it.  A client that has seen every
+ * change up to some number can then ask for just the rooms changed since.  If
+ * any entry in that range is missing, because it expired, was evicted or is
+ * still being written, the caller is told to reload everything instead.
+ */
+public class RoomChangeLog {
+	
+	private static final String KEY_PREFIX = "RoomChange@";
+	private static final int EXPIRATION_SECONDS = 60 * 60;
+	
+	// More changes than this are cheaper to send as a full refresh
+	private static final int MAX_CHANGES = 500;
+	
+	// Marks a change that affects every room
+	private static final Integer ALL_ROOMS = -1;
+	
+	private static final VersionStamp SEQUENCE = new VersionStamp("RoomChanges");
+	
+	/**
+	 * @return the number of the latest change
+	 */
+	public static long current() {
+		return SEQUENCE.current();
+	}
+	
+	/**
+	 * Record that the occupancy or metadata of some rooms changed.
+	 * 
+	 * @param rooms the room numbers; nulls are ignored
+	 * @return the number of the latest change recorded
+	 */
+	public static long record(Integer... rooms) {
+		long seq = 0;
+		for(Integer room : rooms) {
+			if(room != null) {
+				seq = put(room);
+			}
+		}
+		return seq;
+	}
+	
+	/**
+	 * Record a change that affects every room, such as a new room list.
+	 * Clients that have not seen it will reload everything.
+	 * 
+	 * @return the number of the change
+	 */
+	public static long reset() {
+		return put(ALL_ROOMS);
+	}
+	
+	/**
+	 * Find the rooms changed after one change, up to and including another.
+	 * 
+	 * @param since the last change the client has seen
+	 * @param until the latest change, from current
+	 * @return the room numbers that changed, or null if the client must reload
+	 * 		every room
+	 */
+	public static Set<Integer> since(long since, long until) {
+		if(until - since > MAX_CHANGES || since > until) {
+			return null;
+		}
+		List<Object> keys = new ArrayList<Object>((int) (until - since));
+		for(long seq = since + 1; seq <= until; seq++) {
+			keys.add(KEY_PREFIX + seq);
+		}
+		Map<Object, Object> entries;
+		try {
+			entries = MemcacheServiceFactory.getMemcacheService().getAll(keys);
+		} catch (RuntimeException e) {
+			Logger.getGlobal().log(Level.WARNING, "Could not read room changes from memcache", e);
+			return null;
+		}
+		if(entries == null || entries.size() < keys.size()) {
+			return null;
+		}
+		Set<Integer> rooms = new HashSet<Integer>();
+		for(Object room : entries.values()) {
+			if(!(room instanceof Integer) || ALL_ROOMS.equals(room)) {
+				return null;
+			}
+			rooms.add((Integer) room);
+		}
+		return rooms;
+	}
+	
+	private static long put(Integer room) {
+		long seq = SEQUENCE.bump();
+		try {
+			MemcacheServiceFactory.getMemcacheService().put(KEY_PREFIX + seq, room,
+					Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+		} catch (RuntimeException e) {
+			// Readers will see the gap and reload everything
+			Logger.getGlobal().log(Level.WARNING, "Could not record change to room "+room, e);
+		}
+		return seq;
+	}
+
+}
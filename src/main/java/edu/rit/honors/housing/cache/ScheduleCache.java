@@ -0,0 +1,43 @@
+package edu.rit.honors.housing.cache;
+
+import javax.jdo.PersistenceManager;
+
+import edu.rit.honors.housing.datastore.ScheduleHelper;
+import edu.rit.honors.housing.jdo.SelectionSchedule;
+
+/**
+ * Keeps the SelectionSchedule in memory on each instance, so checking a
+ * student's window doesn't need an RPC.  Other instances see a new schedule
+ * within TTL.
+ */
+public class ScheduleCache {
+	
+	private static final long TTL = 30 * 1000;
+	
+	// cached when there is no schedule
+	private static final SelectionSchedule NONE = new SelectionSchedule();
+	
+	private static final LocalCache<String, SelectionSchedule> LOCAL = new LocalCache<String, SelectionSchedule>(1, TTL);
+	
+	/**
+	 * @param pm used to load the schedule if it isn't cached
+	 * @return the schedule, which is not scheduled if there is none
+	 */
+	public static SelectionSchedule get(PersistenceManager pm) {
+		SelectionSchedule schedule = LOCAL.get(SelectionSchedule.KEY);
+		if(schedule == null) {
+			schedule = ScheduleHelper.load(pm);
+			schedule = (schedule == null) ? NONE : new SelectionSchedule(schedule);
+			LOCAL.put(SelectionSchedule.KEY, schedule);
+		}
+		return schedule;
+	}
+	
+	/**
+	 * Discard the schedule on this instance.
+	 */
+	public static void invalidate() {
+		LOCAL.clear();
+	}
+
+}
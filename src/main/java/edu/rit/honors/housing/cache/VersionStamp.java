@@ -0,0 +1,61 @@
+package edu.rit.honors.housing.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * A named version number shared by every instance through memcache.  Writers
+ * bump the version and readers compare it against the version of whatever
+ * they have cached.
+ * 
+ * The counter is seeded from the clock (in microseconds), so if memcache
+ * evicts it the new value is still larger than any version handed out before.
+ * If memcache is unavailable a per-instance counter is used instead.
+ */
+public class VersionStamp {
+	
+	private static final String PREFIX = "version:";
+	
+	private final String key;
+	private final AtomicLong local = new AtomicLong(seed());
+	
+	public VersionStamp(String name) {
+		this.key = PREFIX + name;
+	}
+	
+	/**
+	 * @return the current version
+	 */
+	public long current() {
+		return this.increment(0);
+	}
+	
+	/**
+	 * Move to a new version, invalidating anything cached against the old one.
+	 * 
+	 * @return the new version
+	 */
+	public long bump() {
+		return this.increment(1);
+	}
+	
+	private long increment(long delta) {
+		try {
+			Long v = MemcacheServiceFactory.getMemcacheService().increment(this.key, delta, seed());
+			if(v != null) {
+				return v;
+			}
+		} catch (RuntimeException e) {
+			Logger.getGlobal().log(Level.WARNING, "Could not read version "+this.key+" from memcache", e);
+		}
+		return this.local.addAndGet(delta);
+	}
+	
+	private static long seed() {
+		return System.currentTimeMillis() * 1000;
+	}
+
+}
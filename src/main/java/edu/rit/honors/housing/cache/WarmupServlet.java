@@ -0,0 +1,40 @@
+package edu.rit.honors.housing.cache;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jdo.PersistenceManager;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.devrel.samples.ttt.PMF;
+
+/**
+ * Handles /_ah/warmup by loading the floors and the occupancy of every room
+ * before a new instance takes its first request.  The occupancy comes from
+ * the RoomOccupancy counters and the reservation log rather than a query of
+ * every Reservation.
+ */
+public class WarmupServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			FloorListCache.get(pm);
+			LiveOccupancy.get().summary(pm);
+		} catch (RuntimeException e) {
+			// the first request will load whatever is missing
+			Logger.getGlobal().log(Level.WARNING, "Warmup failed", e);
+		} finally {
+			pm.close();
+		}
+	}
+
+}
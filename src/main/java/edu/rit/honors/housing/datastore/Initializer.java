@@ -1,59 +1,86 @@
 package edu.rit.honors.housing.datastore;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.jdo.JDOException;
+import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
+import javax.jdo.Transaction;
 
-import org.datanucleus.store.query.AbstractQueryResult;
-
+import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
 
 import edu.rit.honors.housing.jdo.Floor;
-import edu.rit.honors.housing.jdo.FloorList;
 import edu.rit.honors.housing.jdo.InitializeToken;
+import edu.rit.honors.housing.jdo.Room;
 
+/**
+ * Loads the floors in spec.json into the datastore.  The file is read one
+ * floor at a time and the floors are saved in batches, recording progress on
+ * the InitializeToken after each one so that a failed initialization resumes
+ * where it stopped.
+ */
 public class Initializer {
-	
+
 	public static final String resourceFile = "/spec.json";
-	
-	public static void init(PersistenceManager pm) throws NotFoundException {
-		Query q = pm.newQuery(InitializeToken.class);
-		AbstractQueryResult r = (AbstractQueryResult) q.execute();
-		if(r.size() > 0) {
-			return;
-		}
-		
-		Reader reader = null;
-		InitializeToken token = new InitializeToken();
+
+	// the most rooms to save in one batch; each floor is saved with its rooms
+	private static final int BATCH_ROOMS = 400;
+
+	// how long an initialization holds the token without making progress
+	private static final long LEASE_MILLIS = 60 * 1000;
+
+	/**
+	 * Loads spec.json unless it has already been loaded.  Closes pm.
+	 *
+	 * @throws NotFoundException if spec.json can't be read
+	 * @throws ConflictException if another initialization is in progress
+	 */
+	public static void init(PersistenceManager pm) throws NotFoundException, ConflictException {
+		String owner = UUID.randomUUID().toString();
+		JsonReader reader = null;
 		try {
-			// Save the token first to prevent concurrent adding of floors
-			pm.makePersistent(token);
-			pm.flush();
-			
-			Gson gson = new Gson();
-			reader = new InputStreamReader(Initializer.class
-					.getResourceAsStream("/spec.json"));
-			FloorList flist = gson.fromJson(reader, FloorList.class);
-			
-			for( Floor floor : flist.getFloors() ) {
-				pm.makePersistent(floor);
+			Integer saved = claim(pm, owner);
+			if(saved == null) {
+				return;
 			}
+
+			InputStream in = Initializer.class.getResourceAsStream(resourceFile);
+			if(in == null) {
+				throw new NotFoundException(resourceFile+" not found");
+			}
+			reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+			load(reader, saved, pm, owner);
+		} catch( IOException ioe ) {
+			Logger.getGlobal().log(Level.SEVERE, "Failed to read spec.json", ioe);
+			release(pm, owner);
+			throw new NotFoundException(ioe);
 		} catch( JsonIOException jse ) {
 			Logger.getGlobal().log(Level.SEVERE, "Failed to read spec.json", jse);
-			pm.deletePersistent(token);
+			release(pm, owner);
 			throw new NotFoundException(jse);
 		} catch( JsonSyntaxException jse ) {
 			Logger.getGlobal().log(Level.SEVERE, "Failed to parse spec.json; invalid syntax", jse);
-			pm.deletePersistent(token);
+			release(pm, owner);
 			throw new NotFoundException(jse);
+		} catch( IllegalStateException ise ) {
+			Logger.getGlobal().log(Level.SEVERE, "Failed to parse spec.json; unexpected structure", ise);
+			release(pm, owner);
+			throw new NotFoundException(ise);
 		} finally {
 			if( reader != null ) {
 				try {
@@ -66,4 +93,196 @@ public class Initializer {
 		}
 	}
 
+	// reads {"floors": [...]}, skipping the floors that were already saved
+	private static void load(JsonReader reader, int saved, PersistenceManager pm, String owner)
+			throws IOException, ConflictException {
+		Gson gson = new Gson();
+		List<Floor> batch = new ArrayList<Floor>();
+		int rooms = 0;
+		int read = 0;
+		boolean resumed = saved > 0;
+
+		reader.beginObject();
+		while(reader.hasNext()) {
+			if(!"floors".equals(reader.nextName())) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			while(reader.hasNext()) {
+				if(read < saved) {
+					reader.skipValue();
+					read++;
+					continue;
+				}
+				Floor floor = gson.fromJson(reader, Floor.class);
+				setKeys(floor);
+				read++;
+				batch.add(floor);
+				rooms += floor.getRooms().size();
+				if(rooms >= BATCH_ROOMS) {
+					save(batch, resumed, pm);
+					checkpoint(pm, owner, read, false);
+					batch.clear();
+					rooms = 0;
+					resumed = false;
+				}
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+
+		save(batch, resumed, pm);
+		checkpoint(pm, owner, read, true);
+		Logger.getGlobal().info("Initialized "+(read - saved)+" floors, "+saved+" were already saved");
+	}
+
+	private static void save(List<Floor> batch, boolean resumed, PersistenceManager pm) {
+		if(resumed) {
+			// the previous attempt may have saved this batch without recording it
+			for(Iterator<Floor> it = batch.iterator(); it.hasNext(); ) {
+				if(exists(it.next().getNumber(), pm)) {
+					it.remove();
+				}
+			}
+		}
+		if(!batch.isEmpty()) {
+			pm.makePersistentAll(batch);
+		}
+	}
+
+	private static boolean exists(String number, PersistenceManager pm) {
+		try {
+			pm.getObjectById(Floor.class, Floor.keyFor(number));
+			return true;
+		} catch (JDOObjectNotFoundException e) {
+			return false;
+		}
+	}
+
+	// key floors and rooms by number, so they can be found without a query
+	private static void setKeys(Floor floor) {
+		floor.setKey(Floor.keyFor(floor.getNumber()));
+		for(Room r : floor.getRooms()) {
+			r.setKey(Room.keyFor(floor.key(), r.getNumber()));
+		}
+	}
+
+	/**
+	 * Takes the token for this initialization.
+	 *
+	 * @return the number of floors already saved, or null if initialization is complete
+	 * @throws ConflictException if another initialization holds the token
+	 */
+	private static Integer claim(PersistenceManager pm, String owner) throws ConflictException {
+		if(legacyToken(pm)) {
+			return null;
+		}
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			InitializeToken token;
+			try {
+				token = pm.getObjectById(InitializeToken.class, InitializeToken.ID);
+			} catch (JDOObjectNotFoundException e) {
+				token = new InitializeToken(InitializeToken.ID);
+			}
+			if(token.isComplete()) {
+				return null;
+			}
+			Date now = new Date();
+			if(token.isHeld(owner, now)) {
+				throw new ConflictException("Initialization is already in progress");
+			}
+			token.hold(owner, new Date(now.getTime() + LEASE_MILLIS));
+			pm.makePersistent(token);
+			Integer saved = token.getFloors();
+			tx.commit();
+			return saved;
+		} catch (RuntimeException e) {
+			if(!ReservationHelper.isContention(e)) {
+				Logger.getGlobal().log(Level.SEVERE, "Failed to claim initialize token", e);
+				throw e;
+			}
+			// another initialization claimed it at the same time
+			Logger.getGlobal().log(Level.INFO, "Initialize token was claimed concurrently", e);
+			throw new ConflictException("Initialization is already in progress");
+		} finally {
+			if(tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	/**
+	 * Records the number of floors saved and renews the lease, or releases
+	 * the token if complete.
+	 *
+	 * @throws ConflictException if another initialization has taken the token
+	 */
+	private static void checkpoint(PersistenceManager pm, String owner, int floors, boolean complete)
+			throws ConflictException {
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			InitializeToken token = pm.getObjectById(InitializeToken.class, InitializeToken.ID);
+			if(!owner.equals(token.getOwner())) {
+				throw new ConflictException("Initialization was taken over by another request");
+			}
+			token.setFloors(floors);
+			token.setComplete(complete);
+			if(complete) {
+				token.hold(null, null);
+			} else {
+				token.hold(owner, new Date(System.currentTimeMillis() + LEASE_MILLIS));
+			}
+			tx.commit();
+		} catch (RuntimeException e) {
+			if(!ReservationHelper.isContention(e)) {
+				Logger.getGlobal().log(Level.SEVERE, "Failed to record initialization progress", e);
+				throw e;
+			}
+			Logger.getGlobal().log(Level.WARNING, "Initialize token changed while recording progress", e);
+			throw new ConflictException("Initialization was interrupted, please try again");
+		} finally {
+			if(tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	// lets another initialization resume immediately after a failure
+	private static void release(PersistenceManager pm, String owner) {
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			InitializeToken token = pm.getObjectById(InitializeToken.class, InitializeToken.ID);
+			if(owner.equals(token.getOwner())) {
+				token.hold(null, null);
+			}
+			tx.commit();
+		} catch (JDOException e) {
+			Logger.getGlobal().log(Level.WARNING, "Failed to release initialize token", e);
+		} finally {
+			if(tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	// tokens from before progress was recorded mean the floors were loaded
+	private static boolean legacyToken(PersistenceManager pm) {
+		Query q = pm.newQuery(InitializeToken.class);
+		try {
+			for(Object o : (List<?>) q.execute()) {
+				if(!InitializeToken.ID.equals(((InitializeToken) o).getId())) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			q.closeAll();
+		}
+	}
+
 }
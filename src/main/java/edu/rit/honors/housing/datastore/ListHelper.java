@@ -1,40 +1,399 @@
 package edu.rit.honors.housing.datastore;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.logging.Logger;
 
+import javax.jdo.JDOHelper;
 import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
 
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
 
+import edu.rit.honors.housing.Housing;
+import edu.rit.honors.housing.jdo.ListMember;
 import edu.rit.honors.housing.jdo.StringList;
+import edu.rit.honors.housing.jdo.StringListShard;
+import edu.rit.honors.housing.stats.Metrics;
 
+/**
+ * Reads and writes StringLists.  Small lists keep their strings in the
+ * StringList entity.  Once a list has more than SHARD_THRESHOLD strings they
+ * are split across StringListShards by hash, and the StringList entity only
+ * records how many shards there are, until it shrinks back to that size.
+ *
+ * Each string is also indexed as a ListMember, so checking whether a list
+ * contains a string doesn't depend on the size of the list.  The Room list
+ * isn't indexed.
+ */
 public class ListHelper {
-	
+
+	// the number of shards for new lists; with 100k emails each shard is
+	// around 50KB, well under the entity size limit
+	public static final int SHARDS = 64;
+
+	// lists up to this size are read and written as one entity
+	private static final int SHARD_THRESHOLD = 1000;
+
+	// the most entities the datastore will write in one call
+	private static final int BATCH = 500;
+
 	// gets a StringList from the datastore
     public static StringList getList(String listName, PersistenceManager pm) throws NotFoundException{
+    	StringList head = getHead(listName, pm);
+    	if(head.shards() == null){
+    		return head;
+    	}
+    	return assemble(head, getShards(head, pm));
+    }
+
+    /**
+     * Replaces or adds to the strings of a list.  Only the shards whose
+     * strings actually change are written.
+     *
+     * @return the complete list after the update
+     */
+    public static StringList updateList(String listName, PersistenceManager pm, List<String> str, boolean append){
+    	StringList head;
+    	try {
+    		head = getHead(listName, pm);
+    	}catch(NotFoundException nfe){
+    		//there is no list with that key
+    		head = null;
+    	}
+
+    	if(head == null || head.shards() == null){
+    		Set<String> old = new TreeSet<String>();
+    		if(head != null && head.getStrings() != null){
+    			old.addAll(head.getStrings());
+    		}
+    		Set<String> strings = new TreeSet<String>(str);
+    		if(append){
+    			strings.addAll(old);
+    		}
+    		if(strings.size() > SHARD_THRESHOLD){
+    			return create(listName, head, pm, strings, old);
+    		}
+    		return saveUnsharded(listName, head, pm, strings, old);
+    	}
+
+    	List<StringListShard> shards = getShards(head, pm);
+    	if(append ? str.size() + countStrings(shards) <= SHARD_THRESHOLD : str.size() <= SHARD_THRESHOLD){
+    		Set<String> old = assemble(head, shards).getStrings();
+    		Set<String> strings = new TreeSet<String>(str);
+    		if(append){
+    			strings.addAll(old);
+    		}
+    		// the head is written first, so readers stop reading the shards
+    		StringList list = saveUnsharded(listName, head, pm, strings, old);
+    		List<StringListShard> stored = new ArrayList<StringListShard>(shards.size());
+    		for(StringListShard shard : shards){
+    			if(JDOHelper.isPersistent(shard)){
+    				stored.add(shard);
+    			}
+    		}
+    		pm.deletePersistentAll(stored);
+    		return list;
+    	}
+    	List<Set<String>> wanted = partition(str, shards.size());
+    	List<StringListShard> changed = new ArrayList<StringListShard>();
+    	List<String> added = new ArrayList<String>();
+    	List<String> removed = new ArrayList<String>();
+    	for(int i = 0; i < shards.size(); i++){
+    		StringListShard shard = shards.get(i);
+    		Set<String> old = shard.getStrings();
+    		Set<String> strings;
+    		if(append){
+    			strings = new TreeSet<String>(old);
+    			strings.addAll(wanted.get(i));
+    		}else{
+    			strings = wanted.get(i);
+    			for(String s : old){
+    				if(!strings.contains(s)){
+    					removed.add(s);
+    				}
+    			}
+    		}
+    		for(String s : strings){
+    			if(!old.contains(s)){
+    				added.add(s);
+    			}
+    		}
+    		if(!strings.equals(old)){
+    			shard.setStrings(strings);
+    			changed.add(shard);
+    		}
+    	}
+
+    	// remove from the index first, so a removed member can't be authorized
+    	// if the rest of the update fails
+    	boolean indexed = isIndexed(listName);
+    	if(indexed){
+    		unindex(listName, removed);
+    	}
+    	if(!changed.isEmpty()){
+    		pm.makePersistentAll(changed);
+    	}
+    	Logger.getGlobal().info("Updated "+changed.size()+" of "+shards.size()+" shards of list "+listName);
+
+    	StringList list = assemble(head, shards);
+    	if(indexed){
+    		index(listName, added, pm);
+    	}else{
+    		index(listName, list.getStrings(), pm);
+    		markIndexed(listName, pm);
+    	}
+    	return list;
+    }
+
+    /**
+     * Checks which of the given lists contain a string using the membership
+     * index, with a single batch get.
+     *
+     * @return for each list that is indexed, whether it contains s; lists
+     * 		that aren't indexed yet are left out and must be loaded
+     */
+    public static Map<String,Boolean> memberships(String s, String... lists){
+    	List<Key> keys = membershipKeys(s, lists);
+    	Map<Key,Entity> found = DatastoreServiceFactory.getDatastoreService().get(keys);
+    	Metrics.countGets(keys.size());
+    	return memberships(s, found, lists);
+    }
+
+    /**
+     * @return the keys to get to check whether the lists contain s
+     */
+    public static List<Key> membershipKeys(String s, String... lists){
+    	List<Key> keys = new ArrayList<Key>(2 * lists.length + 1);
+    	for(String list : lists){
+    		keys.add(ListMember.key(list, s));
+    		keys.add(ListMember.indexedKey(list));
+    	}
+    	return keys;
+    }
+
+    /**
+     * @param found the result of getting at least the membershipKeys
+     * @return the same as memberships(s, lists)
+     */
+    public static Map<String,Boolean> memberships(String s, Map<Key,Entity> found, String... lists){
+    	Map<String,Boolean> memberships = new HashMap<String,Boolean>();
+    	for(String list : lists){
+    		if(found.containsKey(ListMember.indexedKey(list))){
+    			memberships.put(list, found.containsKey(ListMember.key(list, s)));
+    		}
+    	}
+    	return memberships;
+    }
+
+    private static StringList getHead(String listName, PersistenceManager pm) throws NotFoundException{
     	try{
     		return pm.getObjectById(StringList.class, listName);
     	}catch(JDOObjectNotFoundException jdoe){
     		throw new NotFoundException("List "+listName+" not found");
     	}
     }
-    
-    public static StringList updateList(String listName, PersistenceManager pm, List<String> str, boolean append){
+
+    // writes a small list into the StringList entity itself
+    private static StringList saveUnsharded(String listName, StringList head, PersistenceManager pm, Set<String> strings, Set<String> old){
+    	List<String> added = new ArrayList<String>();
+    	List<String> removed = removed(old, strings);
+    	for(String s : strings){
+    		if(!old.contains(s)){
+    			added.add(s);
+    		}
+    	}
+
+    	boolean indexed = isIndexed(listName);
+    	if(indexed){
+    		unindex(listName, removed);
+    	}
+    	if(head == null){
+    		head = new StringList();
+    		head.setKey(listName);
+    	}
+    	head.setStrings(new TreeSet<String>(strings));
+    	head.setShards(null);
+    	pm.makePersistent(head);
+    	if(indexed){
+    		index(listName, added, pm);
+    	}else{
+    		index(listName, strings, pm);
+    		markIndexed(listName, pm);
+    	}
+
+    	StringList list = new StringList(new TreeSet<String>(strings));
+    	list.setKey(listName);
+    	return list;
+    }
+
+    // writes a list that has grown past SHARD_THRESHOLD into new shards
+    private static StringList create(String listName, StringList head, PersistenceManager pm, Set<String> strings, Set<String> old){
+    	if(isIndexed(listName)){
+    		unindex(listName, removed(old, strings));
+    	}
+    	List<Set<String>> parts = partition(strings, SHARDS);
+    	List<StringListShard> shards = new ArrayList<StringListShard>(SHARDS);
+    	for(int i = 0; i < SHARDS; i++){
+    		StringListShard shard = new StringListShard(listName, i);
+    		shard.setStrings(parts.get(i));
+    		shards.add(shard);
+    	}
+    	pm.makePersistentAll(shards);
+
+    	// written after the shards, so a list with a shard count always has all its shards
+    	if(head == null){
+    		head = new StringList();
+    		head.setKey(listName);
+    	}
+    	head.setStrings(new TreeSet<String>());
+    	head.setShards(SHARDS);
+    	pm.makePersistent(head);
+
+    	index(listName, strings, pm);
+    	markIndexed(listName, pm);
+    	return assemble(head, shards);
+    }
+
+    // the Room list is only ever loaded whole, never checked for a member
+    private static boolean indexes(String listName){
+    	return !Housing.ROOM_LIST.equals(listName);
+    }
+
+    private static void markIndexed(String listName, PersistenceManager pm){
+    	if(indexes(listName)){
+    		pm.makePersistent(ListMember.indexed(listName));
+    	}
+    }
+
+    private static boolean isIndexed(String listName){
+    	if(!indexes(listName)){
+    		return false;
+    	}
+    	Metrics.countGets(1);
     	try {
-    		StringList rooms = getList(listName,pm);
-    		if(append){
-    			rooms.getStrings().addAll(str);
-    		}else{
-    			rooms.setStrings(str);
+    		DatastoreServiceFactory.getDatastoreService().get(ListMember.indexedKey(listName));
+    		return true;
+    	}catch(EntityNotFoundException e){
+    		return false;
+    	}
+    }
+
+    // adds strings to the membership index in batches
+    private static void index(String listName, Collection<String> strings, PersistenceManager pm){
+    	if(!indexes(listName)){
+    		return;
+    	}
+    	List<ListMember> batch = new ArrayList<ListMember>(BATCH);
+    	for(String s : strings){
+    		batch.add(new ListMember(listName, s));
+    		if(batch.size() == BATCH){
+    			pm.makePersistentAll(batch);
+    			batch.clear();
     		}
-    		return pm.makePersistent(rooms);
-    	}catch(NotFoundException cce){
-    		//there is no list with that key
-    		StringList rooms = new StringList(str);
-    		rooms.setKey(listName);
-    		return pm.makePersistent(rooms);
     	}
+    	if(!batch.isEmpty()){
+    		pm.makePersistentAll(batch);
+    	}
+    }
+
+    // removes strings from the membership index in batches
+    private static void unindex(String listName, Collection<String> strings){
+    	if(!indexes(listName)){
+    		return;
+    	}
+    	DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    	List<Key> batch = new ArrayList<Key>(BATCH);
+    	for(String s : strings){
+    		batch.add(ListMember.key(listName, s));
+    		if(batch.size() == BATCH){
+    			ds.delete(batch);
+    			Metrics.countDeletes(batch.size());
+    			batch.clear();
+    		}
+    	}
+    	if(!batch.isEmpty()){
+    		ds.delete(batch);
+    		Metrics.countDeletes(batch.size());
+    	}
+    }
+
+    // gets every shard of a list in one batch
+    private static List<StringListShard> getShards(StringList head, PersistenceManager pm){
+    	int n = head.shards();
+    	List<Object> ids = new ArrayList<Object>(n);
+    	for(int i = 0; i < n; i++){
+    		ids.add(pm.newObjectIdInstance(StringListShard.class, StringListShard.keyFor(head.getKey(), i)));
+    	}
+    	List<StringListShard> shards = new ArrayList<StringListShard>(n);
+    	try {
+    		for(Object o : pm.getObjectsById(ids)){
+    			shards.add((StringListShard) o);
+    		}
+    	}catch(JDOObjectNotFoundException jdoe){
+    		// only if a write of the shards failed part way; treat missing shards as empty
+    		Logger.getGlobal().warning("List "+head.getKey()+" is missing shards");
+    		shards.clear();
+    		for(int i = 0; i < n; i++){
+    			try {
+    				shards.add((StringListShard) pm.getObjectById(ids.get(i)));
+    			}catch(JDOObjectNotFoundException missing){
+    				shards.add(new StringListShard(head.getKey(), i));
+    			}
+    		}
+    	}
+    	return shards;
+    }
+
+    private static int countStrings(List<StringListShard> shards){
+    	int n = 0;
+    	for(StringListShard shard : shards){
+    		n += shard.getStrings().size();
+    	}
+    	return n;
+    }
+
+    private static List<String> removed(Set<String> old, Set<String> strings){
+    	List<String> removed = new ArrayList<String>();
+    	for(String s : old){
+    		if(!strings.contains(s)){
+    			removed.add(s);
+    		}
+    	}
+    	return removed;
+    }
+
+    private static List<Set<String>> partition(Collection<String> str, int shards){
+    	List<Set<String>> parts = new ArrayList<Set<String>>(shards);
+    	for(int i = 0; i < shards; i++){
+    		parts.add(new TreeSet<String>());
+    	}
+    	for(String s : str){
+    		parts.get(StringListShard.shardOf(s, shards)).add(s);
+    	}
+    	return parts;
+    }
+
+    // a detached StringList of all the strings in the shards
+    private static StringList assemble(StringList head, List<StringListShard> shards){
+    	SortedSet<String> strings = new TreeSet<String>();
+    	for(StringListShard shard : shards){
+    		strings.addAll(shard.getStrings());
+    	}
+    	StringList list = new StringList(strings);
+    	list.setKey(head.getKey());
+    	return list;
     }
 
 }
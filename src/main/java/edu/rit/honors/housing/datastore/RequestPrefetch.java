@@ -0,0 +1,113 @@
+package edu.rit.honors.housing.datastore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+
+import edu.rit.honors.housing.jdo.Reservation;
+import edu.rit.honors.housing.stats.Metrics;
+
+/**
+ * Starts the gets a request will need, as one asynchronous batch get, before
+ * it needs them.  The request can load the floors while the get is in
+ * flight, and each accessor waits for the result only when it is first used.
+ * 
+ * If the get fails the accessors return null, and callers fall back to
+ * reading synchronously.
+ */
+public class RequestPrefetch {
+	
+	private final String email;
+	private final String[] lists;
+	private final boolean reservation;
+	private final Future<Map<Key,Entity>> future;
+	private Map<Key,Entity> found;
+	private boolean failed = false;
+	
+	private RequestPrefetch(String email, boolean reservation, String... lists) {
+		this.email = email;
+		this.lists = lists;
+		this.reservation = reservation;
+		
+		List<Key> keys = ListHelper.membershipKeys(email, lists);
+		if(reservation) {
+			keys.add(Reservation.keyFor(email));
+		}
+		this.future = DatastoreServiceFactory.getAsyncDatastoreService().get(keys);
+		Metrics.countGets(keys.size());
+	}
+	
+	/**
+	 * Start getting a user's membership in the given lists.  Pass no lists
+	 * when the memberships are already cached.
+	 * 
+	 * @param reservation true to get the user's reservation too
+	 * @return null if there is no email to look up
+	 */
+	public static RequestPrefetch start(String email, boolean reservation, String... lists) {
+		if(email == null) {
+			return null;
+		}
+		return new RequestPrefetch(email, reservation, lists);
+	}
+	
+	public String getEmail() {
+		return email;
+	}
+	
+	/**
+	 * @return the same as ListHelper.memberships, or null if no lists were
+	 * 		fetched or the get failed
+	 */
+	public Map<String,Boolean> memberships() {
+		if(this.lists.length == 0) {
+			return null;
+		}
+		Map<Key,Entity> found = this.join();
+		return (found == null) ? null : ListHelper.memberships(email, found, lists);
+	}
+	
+	/**
+	 * @return true if the user's reservation was fetched
+	 */
+	public boolean hasReservation() {
+		return this.reservation && this.join() != null;
+	}
+	
+	/**
+	 * @return the user's reservation keyed by email, or null if there isn't
+	 * 		one or it wasn't fetched
+	 */
+	public Reservation reservation() {
+		Map<Key,Entity> found = this.join();
+		if(!this.reservation || found == null) {
+			return null;
+		}
+		Entity e = found.get(Reservation.keyFor(email));
+		return (e == null) ? null : Reservation.fromEntity(e);
+	}
+	
+	private synchronized Map<Key,Entity> join() {
+		if(this.found == null && !this.failed) {
+			try {
+				this.found = this.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				this.failed = true;
+			} catch (ExecutionException e) {
+				Logger.getGlobal().log(Level.WARNING, "Prefetch for "+email+" failed", e.getCause());
+				this.failed = true;
+			}
+		}
+		return this.found;
+	}
+
+}
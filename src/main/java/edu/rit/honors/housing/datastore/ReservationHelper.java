@@ -0,0 +1,488 @@
+package edu.rit.honors.housing.datastore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.datastore.Key;
+
+import edu.rit.honors.housing.jdo.Migration;
+import edu.rit.honors.housing.jdo.Reservation;
+import edu.rit.honors.housing.jdo.ReservationEvent;
+import edu.rit.honors.housing.jdo.RoomOccupancy;
+
+/**
+ * Writes reservations together with the RoomOccupancy counter of every room
+ * involved and a ReservationEvent for every change, in one cross-group
+ * transaction.  The capacity check happens inside the transaction, so two
+ * students can't both take the last bed in a room.
+ * 
+ * Transactions that fail because another request changed the same entities
+ * are retried a few times with a randomized backoff.
+ */
+public class ReservationHelper {
+	
+	private static final int MAX_ATTEMPTS = 5;
+	private static final long BACKOFF_MILLIS = 25;
+	
+	// a cross-group transaction can touch at most 25 entity groups.  A group
+	// reservation touches the room's counter and the student's reservation,
+	// legacy reservation, old counter and event, then each roommate's
+	// reservation and event
+	private static final int MAX_GROUPS = 25;
+	public static final int MAX_ROOMMATES = (MAX_GROUPS - 5) / 2;
+	
+	private static final Random JITTER = new Random();
+	
+	private static final String MIGRATION = "Reservation";
+	private static volatile boolean migrated = false;
+	
+	private static final AtomicLong commits = new AtomicLong();
+	private static final AtomicLong conflicts = new AtomicLong();
+	private static final AtomicLong retries = new AtomicLong();
+	private static final AtomicLong failures = new AtomicLong();
+	
+	private PersistenceManager pm;
+	
+	public ReservationHelper(PersistenceManager pm) {
+		this.pm = pm;
+	}
+	
+	/**
+	 * Find a student's reservation by key.  A reservation from before
+	 * reservations were keyed by email is found with a query and migrated.
+	 * 
+	 * @param email the student's email address
+	 * @return the reservation, or null if the student doesn't have one
+	 */
+	public Reservation find(String email) {
+		try {
+			return pm.getObjectById(Reservation.class, Reservation.keyFor(email));
+		} catch (JDOObjectNotFoundException e) {
+			// not reserved, or not migrated yet
+		}
+		return this.findLegacy(email);
+	}
+	
+	/**
+	 * Like find(email), using the reservation fetched by prefetch if it has one.
+	 */
+	public Reservation find(String email, RequestPrefetch prefetch) {
+		if(prefetch == null || !prefetch.hasReservation() || !email.equals(prefetch.getEmail())) {
+			return this.find(email);
+		}
+		Reservation r = prefetch.reservation();
+		return (r != null) ? r : this.findLegacy(email);
+	}
+	
+	// find and migrate a reservation from before reservations were keyed by email
+	private Reservation findLegacy(String email) {
+		if(this.isMigrated()) {
+			return null;
+		}
+		Reservation legacy = this.queryLegacy(email);
+		if(legacy == null) {
+			return null;
+		}
+		try {
+			return this.migrate(legacy);
+		} catch (ConflictException e) {
+			Logger.getGlobal().log(Level.WARNING, "Could not migrate reservation for "+email, e);
+			return legacy;
+		}
+	}
+	
+	/**
+	 * Reserve a bed in a room, moving the user's existing reservation if there
+	 * is one.
+	 * 
+	 * @param current the user's existing reservation, or null
+	 * @param email the user's email address
+	 * @param fullname the name shown to other students
+	 * @param room the room number to reserve
+	 * @param capacity the capacity of the room
+	 * @return the saved reservation
+	 * @throws ConflictException if the room is full or is too busy to reserve
+	 */
+	public Reservation reserve(final Reservation current, final String email, final String fullname,
+			final Integer room, final int capacity) throws ConflictException {
+		return this.inTransaction(new Work<Reservation>() {
+			@Override
+			public Reservation run() throws ConflictException {
+				RoomOccupancy target = counter(room);
+				if(target.getOccupants() >= capacity) {
+					throw new ConflictException("Room is full");
+				}
+				Reservation res = place(getExisting(email, current), email, fullname, room);
+				target.setOccupants(target.getOccupants() + 1);
+				return res;
+			}
+		});
+	}
+	
+	/**
+	 * Reserve beds in one room for a student and roommates who don't have
+	 * reservations yet, moving the student's own reservation if they have
+	 * one.  Either every student gets a bed or none do.
+	 * 
+	 * @param current the student's existing reservation, as returned by find
+	 * @param email the student's email address
+	 * @param fullname the name shown to other students
+	 * @param roommates the roommates' email addresses, not including the student
+	 * @param room the room number to reserve
+	 * @param capacity the capacity of the room
+	 * @return the saved reservations, the student's first
+	 * @throws ConflictException if a roommate already has a reservation, the
+	 * 		room doesn't have a bed for every student or is too busy to reserve
+	 */
+	public List<Reservation> reserveGroup(final Reservation current, final String email, final String fullname,
+			final List<String> roommates, final Integer room, final int capacity) throws ConflictException {
+		return this.inTransaction(new Work<List<Reservation>>() {
+			@Override
+			public List<Reservation> run() throws ConflictException {
+				RoomOccupancy target = counter(room);
+				for(String roommate : roommates) {
+					if(getInTransaction(Reservation.keyFor(roommate)) != null) {
+						throw new ConflictException(roommate+" already has a room");
+					}
+				}
+				Reservation res = getExisting(email, current);
+				boolean moving = res == null || !room.equals(res.getRoomNumber());
+				int needed = roommates.size() + (moving ? 1 : 0);
+				if(target.getOccupants() + needed > capacity) {
+					throw new ConflictException("Room doesn't have "+needed+" free beds");
+				}
+				
+				List<Reservation> saved = new ArrayList<Reservation>(roommates.size() + 1);
+				saved.add(moving ? place(res, email, fullname, room) : res);
+				for(String roommate : roommates) {
+					saved.add(place(null, roommate, "", room));
+				}
+				target.setOccupants(target.getOccupants() + needed);
+				return saved;
+			}
+		});
+	}
+	
+	/**
+	 * Delete a reservation and free its bed.
+	 * 
+	 * @param current the reservation to delete
+	 * @throws ConflictException if the room is too busy to update
+	 */
+	public void cancel(final Reservation current) throws ConflictException {
+		this.inTransaction(new Work<Void>() {
+			@Override
+			public Void run() {
+				Reservation res = getInTransaction(current.key());
+				if(res == null) {
+					// already cancelled
+					return null;
+				}
+				RoomOccupancy counter = counter(res.getRoomNumber());
+				counter.setOccupants(Math.max(0, counter.getOccupants() - 1));
+				pm.makePersistent(ReservationEvent.cancel(res.getUser(), res.getFullname(), res.getRoomNumber()));
+				pm.deletePersistent(res);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Migrate up to limit reservations with numeric ids to keys by email,
+	 * recording when none are left.
+	 * 
+	 * @return the progress of the migration
+	 */
+	public Migration migrateAll(int limit) {
+		Migration migration;
+		try {
+			migration = pm.getObjectById(Migration.class, MIGRATION);
+		} catch (JDOObjectNotFoundException e) {
+			migration = new Migration(MIGRATION);
+		}
+		
+		List<Reservation> legacy = new ArrayList<Reservation>();
+		Query q = pm.newQuery(Reservation.class);
+		try {
+			for(Object o : (List<?>) q.execute()) {
+				Reservation r = (Reservation) o;
+				if(r.legacy()) {
+					legacy.add(r);
+				}
+			}
+		} finally {
+			q.closeAll();
+		}
+		
+		int migrated = 0;
+		boolean failed = false;
+		for(Reservation r : legacy) {
+			if(migrated >= limit) {
+				break;
+			}
+			try {
+				this.migrate(r);
+				migrated++;
+			} catch (ConflictException e) {
+				Logger.getGlobal().log(Level.WARNING, "Could not migrate reservation for "+r.getUser(), e);
+				failed = true;
+			}
+		}
+		migration.setMigrated(migration.getMigrated() + migrated);
+		migration.setComplete(!failed && migrated == legacy.size());
+		pm.makePersistent(migration);
+		Logger.getGlobal().info("Migrated "+migrated+" of "+legacy.size()+" reservations");
+		return migration;
+	}
+	
+	// replace a reservation with a numeric id by one keyed by email
+	private Reservation migrate(final Reservation legacy) throws ConflictException {
+		return this.inTransaction(new Work<Reservation>() {
+			@Override
+			public Reservation run() {
+				Reservation res = getInTransaction(Reservation.keyFor(legacy.getUser()));
+				Reservation old = getInTransaction(legacy.key());
+				if(old == null) {
+					return res;
+				}
+				pm.deletePersistent(old);
+				if(res != null) {
+					// a keyed reservation was made first; the old one only held a bed
+					RoomOccupancy counter = counter(old.getRoomNumber());
+					counter.setOccupants(Math.max(0, counter.getOccupants() - 1));
+					return res;
+				}
+				return pm.makePersistent(new Reservation(old.getUser(), old.getFullname(), old.getRoomNumber(), old.getDate()));
+			}
+		});
+	}
+	
+	// the student's reservation, including one with a numeric id that
+	// couldn't be migrated, so it is replaced instead of left holding a bed
+	private Reservation getExisting(String email, Reservation current) {
+		Reservation res = getInTransaction(Reservation.keyFor(email));
+		if(res == null && current != null && current.legacy()) {
+			res = getInTransaction(current.key());
+		}
+		return res;
+	}
+	
+	// moves res, or makes a new reservation, into room and logs it; the
+	// caller counts the new occupant
+	private Reservation place(Reservation res, String email, String fullname, Integer room) {
+		Integer from = null;
+		if(res != null) {
+			from = res.getRoomNumber();
+			RoomOccupancy old = counter(from);
+			old.setOccupants(Math.max(0, old.getOccupants() - 1));
+		}
+		pm.makePersistent(ReservationEvent.reserve(email, (res == null) ? fullname : res.getFullname(), room, from));
+		if(res == null) {
+			return pm.makePersistent(new Reservation(email, fullname, room, new Date()));
+		} else if(res.legacy()) {
+			pm.deletePersistent(res);
+			return pm.makePersistent(new Reservation(email, res.getFullname(), room, res.getDate()));
+		} else {
+			res.setRoomNumber(room);
+			return res;
+		}
+	}
+	
+	private Reservation getInTransaction(Key key) {
+		try {
+			return pm.getObjectById(Reservation.class, key);
+		} catch (JDOObjectNotFoundException e) {
+			return null;
+		}
+	}
+	
+	private Reservation queryLegacy(String email) {
+		Query q = pm.newQuery(Reservation.class);
+		q.setFilter("user == currentUser");
+		q.declareParameters("String currentUser");
+		try {
+			for(Object o : (List<?>) q.execute(email)) {
+				Reservation r = (Reservation) o;
+				if(r.legacy()) {
+					return r;
+				}
+			}
+			return null;
+		} finally {
+			q.closeAll();
+		}
+	}
+	
+	// once every reservation is keyed by email, there's no need to query for old ones
+	private boolean isMigrated() {
+		if(migrated) {
+			return true;
+		}
+		try {
+			migrated = Boolean.TRUE.equals(pm.getObjectById(Migration.class, MIGRATION).getComplete());
+		} catch (JDOObjectNotFoundException e) {
+			migrated = false;
+		}
+		return migrated;
+	}
+	
+	/**
+	 * @return the occupants of every room that has a counter, by room number
+	 */
+	public Map<Integer,Integer> getCounters() {
+		Map<Integer,Integer> counters = new HashMap<Integer,Integer>();
+		Query q = pm.newQuery(RoomOccupancy.class);
+		try {
+			for(Object o : (List<?>) q.execute()) {
+				RoomOccupancy counter = (RoomOccupancy) o;
+				counters.put(counter.getRoomNumber(), counter.getOccupants());
+			}
+		} finally {
+			q.closeAll();
+		}
+		return counters;
+	}
+	
+	/**
+	 * Get the counters of some rooms in one batch.
+	 * 
+	 * @return the occupants of each of the rooms that has a counter
+	 */
+	public Map<Integer,Integer> getCounters(Collection<Integer> rooms) {
+		List<Object> ids = new ArrayList<Object>(rooms.size());
+		for(Integer room : rooms) {
+			ids.add(pm.newObjectIdInstance(RoomOccupancy.class, RoomOccupancy.keyFor(room)));
+		}
+		List<RoomOccupancy> found = new ArrayList<RoomOccupancy>(ids.size());
+		try {
+			for(Object o : pm.getObjectsById(ids)) {
+				found.add((RoomOccupancy) o);
+			}
+		} catch (JDOObjectNotFoundException e) {
+			// some rooms have never been reserved; get the others one at a time
+			found.clear();
+			for(Object id : ids) {
+				try {
+					found.add((RoomOccupancy) pm.getObjectById(id));
+				} catch (JDOObjectNotFoundException missing) {
+					// leave it out
+				}
+			}
+		}
+		Map<Integer,Integer> counters = new HashMap<Integer,Integer>();
+		for(RoomOccupancy counter : found) {
+			counters.put(counter.getRoomNumber(), counter.getOccupants());
+		}
+		return counters;
+	}
+	
+	/** @return the number of reservation transactions committed on this instance */
+	public static long getCommits() {
+		return commits.get();
+	}
+	
+	/** @return the number of transactions that failed because of concurrent writes */
+	public static long getConflicts() {
+		return conflicts.get();
+	}
+	
+	/** @return the number of times a transaction was retried */
+	public static long getRetries() {
+		return retries.get();
+	}
+	
+	/** @return the number of reservations given up on after too many conflicts */
+	public static long getFailures() {
+		return failures.get();
+	}
+	
+	private abstract class Work<T> {
+		public abstract T run() throws ConflictException;
+	}
+	
+	private <T> T inTransaction(Work<T> work) throws ConflictException {
+		for(int attempt = 1; ; attempt++) {
+			Transaction tx = pm.currentTransaction();
+			try {
+				tx.begin();
+				T result = work.run();
+				tx.commit();
+				commits.incrementAndGet();
+				return result;
+			} catch (RuntimeException e) {
+				if(!isContention(e)) {
+					throw e;
+				}
+				conflicts.incrementAndGet();
+				if(attempt >= MAX_ATTEMPTS) {
+					failures.incrementAndGet();
+					Logger.getGlobal().log(Level.WARNING, "Reservation failed after "+attempt+" attempts", e);
+					throw new ConflictException("The room is busy, please try again");
+				}
+				retries.incrementAndGet();
+				Logger.getGlobal().info("Reservation conflict, retrying (attempt "+attempt+")");
+				backoff(attempt);
+			} finally {
+				if(tx.isActive()) {
+					tx.rollback();
+				}
+			}
+		}
+	}
+	
+	// true if another transaction changed the same entities first; the
+	// datastore's ConcurrentModificationException usually arrives wrapped
+	static boolean isContention(Throwable e) {
+		for(Throwable t = e; t != null; t = (t.getCause() == t) ? null : t.getCause()) {
+			if(t instanceof ConcurrentModificationException) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static void backoff(int attempt) {
+		long max = BACKOFF_MILLIS << (attempt - 1);
+		try {
+			Thread.sleep(max / 2 + (long) (JITTER.nextDouble() * max / 2));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Get the counter for a room in the current transaction, creating it if
+	 * it doesn't exist yet.  Every reservation made here updates the counter
+	 * of its room, so a room without one only has reservations from before
+	 * there were counters, which the count query has long since caught up
+	 * with.  A request creating the same counter concurrently makes one of
+	 * the transactions fail and retry.
+	 */
+	private RoomOccupancy counter(Integer room) {
+		try {
+			return pm.getObjectById(RoomOccupancy.class, RoomOccupancy.keyFor(room));
+		} catch (JDOObjectNotFoundException e) {
+			return pm.makePersistent(new RoomOccupancy(room, this.countReservations(room)));
+		}
+	}
+	
+	private int countReservations(Integer room) {
+		return ReservationQueries.count(room);
+	}
+
+}
@@ -0,0 +1,309 @@
+package edu.rit.honors.housing.datastore;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+
+import edu.rit.honors.housing.jdo.OccupancySnapshot;
+import edu.rit.honors.housing.jdo.Reservation;
+import edu.rit.honors.housing.jdo.ReservationEvent;
+
+/**
+ * Rebuilds the reservations from the last OccupancySnapshot and the
+ * ReservationEvents after it, instead of querying every Reservation.
+ * Snapshots are only written by compact, from the cron job or an admin, and
+ * never while reading.
+ * 
+ * Queries for events are eventually consistent, so a snapshot only claims to
+ * cover events older than SETTLE_MILLIS, and newer events are replayed on top
+ * of it again.  Replaying an event sets the student's room rather than
+ * moving them, so replaying events a snapshot already includes, in order,
+ * changes nothing.
+ */
+public class ReservationLog {
+	
+	// students in each part of a snapshot; around 100 bytes each
+	private static final int PART_SIZE = 2000;
+	
+	// the cron job writes a new snapshot once this many events follow the last
+	private static final int COMPACT_EVENTS = 500;
+	
+	// how long after it is written an event is sure to be found by queries
+	private static final long SETTLE_MILLIS = 60 * 1000;
+	
+	private static final Random VERSIONS = new Random();
+	
+	private PersistenceManager pm;
+	
+	public ReservationLog(PersistenceManager pm) {
+		this.pm = pm;
+	}
+	
+	/**
+	 * @return the names of the occupants of every room, by room number
+	 */
+	public Map<Integer, List<String>> occupantsByRoom() {
+		Map<String, Reservation> current = this.current();
+		if(current == null) {
+			// no snapshot yet
+			return ReservationQueries.occupantsByRoom();
+		}
+		Map<Integer, List<String>> rooms = new HashMap<Integer, List<String>>();
+		for(Reservation r : current.values()) {
+			List<String> names = rooms.get(r.getRoomNumber());
+			if(names == null) {
+				names = new ArrayList<String>(2);
+				rooms.put(r.getRoomNumber(), names);
+			}
+			names.add(r.getFullname());
+		}
+		return rooms;
+	}
+	
+	/**
+	 * Rebuild the reservations from the last snapshot and the events after it.
+	 * 
+	 * @return transient copies of every reservation, by email, or null if
+	 * 		there is no snapshot yet
+	 */
+	public Map<String, Reservation> current() {
+		OccupancySnapshot head = this.getHead();
+		if(head == null) {
+			return null;
+		}
+		Map<String, Reservation> state = this.load(head);
+		if(state != null) {
+			this.replay(state, head.getTime());
+		}
+		return state;
+	}
+	
+	/**
+	 * Write a new snapshot of the reservations.  The first snapshot is taken
+	 * from a query of every Reservation.
+	 * 
+	 * @return the head of the new snapshot
+	 */
+	public OccupancySnapshot compact() {
+		return this.compact(0);
+	}
+	
+	/**
+	 * Write a new snapshot if there isn't one yet, or if COMPACT_EVENTS
+	 * events have been made since the last one.
+	 * 
+	 * @return the head of the snapshot, new or not
+	 */
+	public OccupancySnapshot compactIfBehind() {
+		return this.compact(COMPACT_EVENTS);
+	}
+	
+	private OccupancySnapshot compact(int minEvents) {
+		OccupancySnapshot head = this.getHead();
+		Map<String, Reservation> state = (head == null) ? null : this.load(head);
+		Date since;
+		if(state == null) {
+			state = this.scan();
+			since = new Date(0);
+		} else {
+			if(this.replay(state, head.getTime()) < minEvents) {
+				return head;
+			}
+			since = head.getTime();
+		}
+		return this.save(state, since);
+	}
+	
+	/**
+	 * @param email only get the events of this student, if not null
+	 * @param limit the most events to get
+	 * @return the latest events, newest first
+	 */
+	@SuppressWarnings("unchecked")
+	public List<ReservationEvent> history(String email, int limit) {
+		Query q = pm.newQuery(ReservationEvent.class);
+		q.setOrdering("time desc");
+		q.setRange(0, limit);
+		try {
+			List<ReservationEvent> events;
+			if(email == null) {
+				events = (List<ReservationEvent>) q.execute();
+			} else {
+				q.setFilter("user == email");
+				q.declareParameters("String email");
+				events = (List<ReservationEvent>) q.execute(email);
+			}
+			return new ArrayList<ReservationEvent>(events);
+		} finally {
+			q.closeAll();
+		}
+	}
+	
+	private OccupancySnapshot getHead() {
+		try {
+			return pm.getObjectById(OccupancySnapshot.class, OccupancySnapshot.headKey());
+		} catch (JDOObjectNotFoundException e) {
+			return null;
+		}
+	}
+	
+	// reads every part of a snapshot in one batch; null if any are missing
+	private Map<String, Reservation> load(OccupancySnapshot head) {
+		if(head.getVersion() == null) {
+			return null;
+		}
+		List<Object> ids = this.partIds(head);
+		List<OccupancySnapshot> parts = new ArrayList<OccupancySnapshot>(ids.size());
+		try {
+			for(Object o : pm.getObjectsById(ids)) {
+				parts.add((OccupancySnapshot) o);
+			}
+		} catch (JDOObjectNotFoundException e) {
+			Logger.getGlobal().warning("Occupancy snapshot is missing parts");
+			return null;
+		}
+		Map<String, Reservation> state = new HashMap<String, Reservation>(2 * head.getReservations());
+		for(OccupancySnapshot part : parts) {
+			for(int i = 0; i < part.users().size(); i++) {
+				String user = part.users().get(i);
+				state.put(user, new Reservation(user, part.fullnames().get(i), part.rooms().get(i), head.getTime()));
+			}
+		}
+		return state;
+	}
+	
+	/**
+	 * Apply the events after since to state.
+	 * 
+	 * @return the number of events applied
+	 */
+	@SuppressWarnings("unchecked")
+	private int replay(Map<String, Reservation> state, Date since) {
+		Query q = pm.newQuery(ReservationEvent.class);
+		q.setFilter("time > since");
+		q.declareParameters("java.util.Date since");
+		q.setOrdering("time asc");
+		int applied = 0;
+		try {
+			for(ReservationEvent e : (List<ReservationEvent>) q.execute(since)) {
+				if(ReservationEvent.CANCEL.equals(e.getType())) {
+					state.remove(e.getUser());
+				} else {
+					state.put(e.getUser(), new Reservation(e.getUser(), e.getFullname(), e.getRoomNumber(), e.getTime()));
+				}
+				applied++;
+			}
+		} finally {
+			q.closeAll();
+		}
+		return applied;
+	}
+	
+	// every reservation, for the first snapshot
+	@SuppressWarnings("unchecked")
+	private Map<String, Reservation> scan() {
+		Map<String, Reservation> state = new HashMap<String, Reservation>();
+		Query q = pm.newQuery(Reservation.class);
+		try {
+			for(Reservation r : (List<Reservation>) q.execute()) {
+				if(r.getUser() == null) {
+					continue;
+				}
+				state.put(r.getUser(), new Reservation(r.getUser(), r.getFullname(), r.getRoomNumber(), r.getDate()));
+			}
+		} finally {
+			q.closeAll();
+		}
+		return state;
+	}
+	
+	private List<Object> partIds(OccupancySnapshot head) {
+		List<Object> ids = new ArrayList<Object>(head.getParts());
+		for(int i = 0; i < head.getParts(); i++) {
+			ids.add(pm.newObjectIdInstance(OccupancySnapshot.class,
+					OccupancySnapshot.keyFor(head.getVersion(), i)));
+		}
+		return ids;
+	}
+	
+	// writes the parts under a new version, then points the head at them
+	private OccupancySnapshot save(Map<String, Reservation> state, Date since) {
+		Date time = new Date(Math.max(since.getTime(), System.currentTimeMillis() - SETTLE_MILLIS));
+		long version = VERSIONS.nextLong();
+		int count = Math.max(1, (state.size() + PART_SIZE - 1) / PART_SIZE);
+		List<OccupancySnapshot> parts = new ArrayList<OccupancySnapshot>(count);
+		for(int i = 0; i < count; i++) {
+			parts.add(new OccupancySnapshot(version, i));
+		}
+		for(Reservation r : state.values()) {
+			parts.get(OccupancySnapshot.partOf(r.getUser(), count)).add(r.getUser(), r.getFullname(), r.getRoomNumber());
+		}
+		pm.makePersistentAll(parts);
+		
+		Long oldVersion = null;
+		int oldParts = 0;
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			OccupancySnapshot head = this.getHead();
+			if(head == null) {
+				head = OccupancySnapshot.head();
+			} else if(head.getTime() != null && head.getTime().after(time)) {
+				// a newer snapshot was saved meanwhile
+				tx.rollback();
+				this.deleteParts(version, count);
+				return head;
+			} else {
+				oldVersion = head.getVersion();
+				oldParts = (head.getParts() == null) ? 0 : head.getParts();
+			}
+			head.setVersion(version);
+			head.setTime(time);
+			head.setParts(count);
+			head.setReservations(state.size());
+			pm.makePersistent(head);
+			tx.commit();
+		} catch (RuntimeException e) {
+			if(!ReservationHelper.isContention(e)) {
+				throw e;
+			}
+			Logger.getGlobal().info("Another occupancy snapshot was saved first");
+			if(tx.isActive()) {
+				tx.rollback();
+			}
+			this.deleteParts(version, count);
+			return this.getHead();
+		} finally {
+			if(tx.isActive()) {
+				tx.rollback();
+			}
+		}
+		if(oldVersion != null) {
+			this.deleteParts(oldVersion, oldParts);
+		}
+		Logger.getGlobal().info("Saved occupancy snapshot of "+state.size()+" reservations in "+count+" parts");
+		return this.getHead();
+	}
+	
+	// parts no head points to; a reader that loaded the old head just
+	// before falls back to a query if they're gone
+	private void deleteParts(long version, int count) {
+		for(int i = 0; i < count; i++) {
+			try {
+				pm.deletePersistent(pm.getObjectById(OccupancySnapshot.class, OccupancySnapshot.keyFor(version, i)));
+			} catch (JDOObjectNotFoundException e) {
+				// already deleted
+			}
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package edu.rit.honors.housing.datastore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+
+import edu.rit.honors.housing.jdo.Reservation;
+import edu.rit.honors.housing.stats.Metrics;
+
+/**
+ * Reads occupancy from Reservations without loading whole entities, using
+ * projection queries on roomNumber and fullname and keys-only counts.  The
+ * projections are served by the Reservation index in datastore-indexes.xml.
+ */
+public class ReservationQueries {
+	
+	private static final String KIND = Reservation.class.getSimpleName();
+	private static final String ROOM = "roomNumber";
+	private static final String NAME = "fullname";
+	
+	private static final int CHUNK = 500;
+	
+	/**
+	 * @return the names of the occupants of every room, by room number
+	 */
+	public static Map<Integer, List<String>> occupantsByRoom() {
+		Query q = new Query(KIND)
+				.addProjection(new PropertyProjection(ROOM, Long.class))
+				.addProjection(new PropertyProjection(NAME, String.class));
+		Map<Integer, List<String>> rooms = new HashMap<Integer, List<String>>();
+		for(Entity e : prepare(q).asIterable(FetchOptions.Builder.withChunkSize(CHUNK))) {
+			Number number = (Number) e.getProperty(ROOM);
+			if(number == null) {
+				continue;
+			}
+			Integer room = number.intValue();
+			List<String> names = rooms.get(room);
+			if(names == null) {
+				names = new ArrayList<String>(2);
+				rooms.put(room, names);
+			}
+			names.add((String) e.getProperty(NAME));
+		}
+		return rooms;
+	}
+	
+	/**
+	 * @return the names of the occupants of one room
+	 */
+	public static List<String> occupantsOf(Integer room) {
+		// a property in an equality filter can't also be projected
+		Query q = new Query(KIND)
+				.setFilter(new FilterPredicate(ROOM, FilterOperator.EQUAL, room))
+				.addProjection(new PropertyProjection(NAME, String.class));
+		List<String> names = new ArrayList<String>(2);
+		for(Entity e : prepare(q).asIterable()) {
+			names.add((String) e.getProperty(NAME));
+		}
+		return names;
+	}
+	
+	/**
+	 * @return the number of reservations for a room, counted with a keys-only query
+	 */
+	public static int count(Integer room) {
+		Query q = new Query(KIND)
+				.setFilter(new FilterPredicate(ROOM, FilterOperator.EQUAL, room))
+				.setKeysOnly();
+		return prepare(q).countEntities(FetchOptions.Builder.withDefaults());
+	}
+	
+	private static PreparedQuery prepare(Query q) {
+		Metrics.countQuery();
+		return DatastoreServiceFactory.getDatastoreService().prepare(q);
+	}
+
+}
@@ -1,78 +1,261 @@
 package edu.rit.honors.housing.datastore;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.jdo.JDOException;
+import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
+import javax.jdo.Transaction;
 
 import org.datanucleus.store.query.AbstractQueryResult;
 
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.appengine.api.datastore.Key;
 
 import edu.rit.honors.housing.Housing;
+import edu.rit.honors.housing.cache.LayoutCache;
+import edu.rit.honors.housing.jdo.BuildingLayout;
 import edu.rit.honors.housing.jdo.Floor;
+import edu.rit.honors.housing.jdo.FloorLayout;
 import edu.rit.honors.housing.jdo.FloorList;
-import edu.rit.honors.housing.jdo.Reservation;
+import edu.rit.honors.housing.jdo.Migration;
 import edu.rit.honors.housing.jdo.Room;
 
 public class RoomHelper {
 	
+	private static final String MIGRATION = "Room";
+	private static volatile boolean migrated = false;
+	
 	private PersistenceManager pm;
 	public boolean checkAvailable = false;
 	public boolean addOccupants = false;
+	
+	// Occupant names keyed by room number, loaded once for a whole set of floors
+	private Map<Integer, List<String>> occupancy = null;
+	
+	// Room numbers from the Room list, fetched once per helper
+	private Set<String> available = null;
 
 	public Room getRoom(Integer number) {
-		if(this.isAvailable(number)) {
-			Query q = pm.newQuery(Room.class);
-	    	q.setFilter("number == roomNumber");
-	    	q.declareParameters("Integer roomNumber");
-	    	
-	    	try{
-	    		AbstractQueryResult res = (AbstractQueryResult) q.execute(number);
-	    		if( res.isEmpty() ){
-	    	    	return null;
-	    		}else{
-	    			Room r = (Room) res.get(0);
-	    			return this.addOccupants(r);
-	    		}
-	    	}finally{
-	    		q.closeAll();
-	    	}
+		// When checking availability, the cached layout's index tells us
+		// whether the room exists without querying for it
+		boolean found = (number != null) && (this.checkAvailable
+				? LayoutCache.get(pm).contains(number) : this.isAvailable(number));
+		if(found) {
+			Room r = this.findRoom(number);
+			return (r == null) ? null : this.addOccupants(r);
 		} else {
 			return null;
 		}
 	}
 	
-	public Floor getFloor(String number) {
+	/**
+	 * Get the persistent Floor with the given number, for adding rooms to it.
+	 * 
+	 * @return the floor, or null if there isn't one
+	 */
+	public Floor findFloor(String number) {
+		try {
+			return pm.getObjectById(Floor.class, Floor.keyFor(number));
+		} catch (JDOObjectNotFoundException e) {
+			// not created yet, or not migrated yet
+		}
+		if(this.isMigrated()) {
+			return null;
+		}
 		Query q = pm.newQuery(Floor.class);
     	q.setFilter("number == floorNumber");
     	q.declareParameters("String floorNumber");
-    	
     	try{
     		AbstractQueryResult res = (AbstractQueryResult) q.execute(number);
     		if( res.isEmpty() ){
     	    	return null;
-    		}else{
-    			if( res.size() > 1 ) {
-    				Logger.getGlobal().warning("Floor "+number+" has a duplicate!");
-    			}
-    			Floor f = (Floor) res.get(0);
-    			Logger.getGlobal().info("Floor "+f.getNumber()+" has "+f.getRooms().size()+" rooms");
-    			// Need to detach a copy so that removing rooms from the floor
-    			// doesn't remove the rooms from floors in the datastore.
-    			f = pm.detachCopy(f);
-    			Logger.getGlobal().info("Copy of Floor "+f.getNumber()+" has "+f.getRooms().size()+" rooms");
-    			return this.processFloor(f);
     		}
+			if( res.size() > 1 ) {
+				Logger.getGlobal().warning("Floor "+number+" has a duplicate!");
+			}
+			return (Floor) res.get(0);
+    	}finally{
+    		q.closeAll();
+    	}
+	}
+	
+	public Floor getFloor(String number) {
+		Floor f = this.findFloor(number);
+		if(f == null) {
+			return null;
+		}
+		Logger.getGlobal().info("Floor "+f.getNumber()+" has "+f.getRooms().size()+" rooms");
+		// Need to detach a copy so that removing rooms from the floor
+		// doesn't remove the rooms from floors in the datastore.
+		f = pm.detachCopy(f);
+		Logger.getGlobal().info("Copy of Floor "+f.getNumber()+" has "+f.getRooms().size()+" rooms");
+		this.loadOccupancy();
+		return this.processFloor(f);
+	}
+	
+	/**
+	 * Replace up to limit floors that have generated ids, and their rooms,
+	 * with ones keyed by number, recording when none are left.
+	 * 
+	 * @return the progress of the migration
+	 */
+	public Migration migrateAll(int limit) {
+		Migration migration;
+		try {
+			migration = pm.getObjectById(Migration.class, MIGRATION);
+		} catch (JDOObjectNotFoundException e) {
+			migration = new Migration(MIGRATION);
+		}
+		
+		List<Key> legacy = new ArrayList<Key>();
+		Query q = pm.newQuery(Floor.class);
+		try {
+			for(Object o : (List<?>) q.execute()) {
+				Floor f = (Floor) o;
+				if(f.legacy()) {
+					legacy.add(f.key());
+				}
+			}
+		} finally {
+			q.closeAll();
+		}
+		
+		int migrated = 0;
+		boolean failed = false;
+		for(Key key : legacy) {
+			if(migrated >= limit) {
+				break;
+			}
+			try {
+				this.migrate(key);
+				migrated++;
+			} catch (JDOException e) {
+				Logger.getGlobal().log(Level.WARNING, "Could not migrate floor "+key, e);
+				failed = true;
+			}
+		}
+		migration.setMigrated(migration.getMigrated() + migrated);
+		migration.setComplete(!failed && migrated == legacy.size());
+		pm.makePersistent(migration);
+		if(migration.getComplete()) {
+			RoomHelper.migrated = true;
+		}
+		Logger.getGlobal().info("Migrated "+migrated+" of "+legacy.size()+" floors");
+		return migration;
+	}
+	
+	// copy a floor and its rooms to keys by number, in one cross-group transaction
+	private void migrate(Key key) {
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			Floor old = pm.getObjectById(Floor.class, key);
+			Floor f;
+			try {
+				// a duplicate floor number was migrated already; merge the rooms
+				f = pm.getObjectById(Floor.class, Floor.keyFor(old.getNumber()));
+			} catch (JDOObjectNotFoundException e) {
+				f = new Floor();
+				f.setKey(Floor.keyFor(old.getNumber()));
+				f.setNumber(old.getNumber());
+			}
+			Set<Integer> present = new HashSet<Integer>();
+			for(Room r : f.getRooms()) {
+				present.add(r.getNumber());
+			}
+			for(Room r : old.getRooms()) {
+				if(r.getNumber() == null) {
+					Logger.getGlobal().warning("Skipping room without a number on floor "+old.getNumber());
+				} else if(present.add(r.getNumber())) {
+					Room copy = new Room(r);
+					copy.setKey(Room.keyFor(f.key(), r.getNumber()));
+					f.getRooms().add(copy);
+				}
+			}
+			pm.makePersistent(f);
+			pm.deletePersistent(old);
+			tx.commit();
+		} finally {
+			if(tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+	
+	// get a room by key if the layout knows its floor, or else by query
+	private Room findRoom(Integer number) {
+		Key key = this.keyOf(number);
+		if(key != null) {
+			try {
+				return pm.getObjectById(Room.class, key);
+			} catch (JDOObjectNotFoundException e) {
+				// not migrated yet, or deleted since the layout was cached
+			}
+			if(this.isMigrated()) {
+				return null;
+			}
+		}
+		Query q = pm.newQuery(Room.class);
+    	q.setFilter("number == roomNumber");
+    	q.declareParameters("Integer roomNumber");
+    	try{
+    		AbstractQueryResult res = (AbstractQueryResult) q.execute(number);
+    		return res.isEmpty() ? null : (Room) res.get(0);
     	}finally{
     		q.closeAll();
     	}
 	}
 	
+	// the key of a room on the cached layout, or null if it isn't there;
+	// the layout only has rooms on the Room list
+	private Key keyOf(Integer number) {
+		FloorLayout floor = (number == null) ? null : LayoutCache.get(pm).floorOf(number);
+		return (floor == null) ? null : Room.keyFor(Floor.keyFor(floor.getNumber()), number);
+	}
+	
+	// once every floor is keyed by number, there's no need to query for old ones
+	private boolean isMigrated() {
+		if(!migrated) {
+			try {
+				migrated = Boolean.TRUE.equals(pm.getObjectById(Migration.class, MIGRATION).getComplete());
+			} catch (JDOObjectNotFoundException e) {
+				// not started
+			}
+		}
+		return migrated;
+	}
+	
+	/**
+	 * Get every floor with rooms on it.  When checking availability, the rooms
+	 * come from the cached BuildingLayout rather than the datastore.
+	 * 
+	 * @return the floors, or null if there are none
+	 */
 	public FloorList getAllFloors() {
+		if(this.checkAvailable) {
+			FloorList retVal = LayoutCache.get(pm).toFloors();
+			if(retVal.getFloors().isEmpty()) {
+				return null;
+			}
+			this.loadOccupancy();
+			for(Floor f : retVal.getFloors()) {
+				for(Room r : f.getRooms()) {
+					this.addOccupants(r);
+				}
+			}
+			return retVal;
+		}
+		
 		Query q = pm.newQuery(Floor.class);
 		q.setOrdering("number asc");
 		AbstractQueryResult res = (AbstractQueryResult) q.execute();
@@ -81,6 +264,7 @@ public class RoomHelper {
 	    	return null;
 		}else{
 			FloorList retVal = new FloorList(new ArrayList<Floor>());
+			this.loadOccupancy();
 			@SuppressWarnings("unchecked")
 			Iterator<Floor> i = res.iterator();
 			while(i.hasNext()){
@@ -95,6 +279,38 @@ public class RoomHelper {
 		}
 	}
 	
+	/**
+	 * Read the floors and rooms from the datastore into a BuildingLayout,
+	 * leaving out unavailable rooms if checkAvailable is set.  Occupants are
+	 * not included.
+	 * 
+	 * @return the layout, which has no floors if there are no rooms
+	 */
+	public BuildingLayout loadLayout() {
+		Query q = pm.newQuery(Floor.class);
+		q.setOrdering("number asc");
+		try {
+			@SuppressWarnings("unchecked")
+			List<Floor> res = (List<Floor>) q.execute();
+			List<Floor> floors = new ArrayList<Floor>(res.size());
+			for(Floor f : res) {
+				// Copy the rooms into a new floor so the stored one isn't changed
+				Floor f2 = new Floor(new ArrayList<Room>(f.getRooms().size()));
+				f2.setNumber(f.getNumber());
+				for(Room r : f.getRooms()) {
+					if(this.isAvailable(r.getNumber())) {
+						f2.getRooms().add(r);
+					}
+				}
+				floors.add(f2);
+			}
+			Logger.getGlobal().info("Loaded layout of "+floors.size()+" floors");
+			return new BuildingLayout(floors);
+		} finally {
+			q.closeAll();
+		}
+	}
+	
 	public RoomHelper(PersistenceManager pm) {
 		this.pm = pm;
 	}
@@ -109,24 +325,42 @@ public class RoomHelper {
 		if(num == null) {
 			return false;
 		} else if(this.checkAvailable) {
+			return this.getAvailable().contains(num.toString());
+		} else {
+			return true;
+		}
+	}
+	
+	/**
+	 * Load the Room list the first time it is needed, so that checking each
+	 * room doesn't fetch the list again.  Rooms match entries exactly, as
+	 * strings.
+	 */
+	private Set<String> getAvailable() {
+		if(this.available == null) {
+			Set<String> rooms = null;
 			try {
-				return ListHelper.getList(Housing.ROOM_LIST, pm).getStrings().contains(num.toString());
+				rooms = ListHelper.getList(Housing.ROOM_LIST, pm).getStrings();
 			} catch (NotFoundException e) {
-				return false;
+				// no list means no rooms are available
 			}
-		} else {
-			return true;
+			this.available = (rooms == null) ? Collections.<String>emptySet() : rooms;
 		}
+		return this.available;
 	}
 	
 	private Room addOccupants(Room r) {
 		if(this.addOccupants) {
-			List<Reservation> res = this.getReservationsForRoom(r);
-            List<String> names = new ArrayList<String>();
-            for(Reservation name : res){
-            	names.add(name.getFullname());
-            }
-            r.setOccupants(res.size());
+			List<String> names;
+			if(this.occupancy != null) {
+				names = this.occupancy.get(r.getNumber());
+				if(names == null) {
+					names = new ArrayList<String>();
+				}
+			} else {
+				names = ReservationQueries.occupantsOf(r.getNumber());
+			}
+            r.setOccupants(names.size());
             r.setOccupantNames(names);
             return r;
 		} else {
@@ -134,24 +368,17 @@ public class RoomHelper {
 		}
 	}
 	
-	private List<Reservation> getReservationsForRoom(Room r) {
-        // For every room, check to see how many reservations have been made.
-        Query q = pm.newQuery(Reservation.class);
-        q.setFilter("roomNumber == room");
-        q.declareParameters("Integer room");
-
-        try {
-            @SuppressWarnings("unchecked")
-			List<Reservation> res = (List<Reservation>) q.execute(r.getNumber());
-            if( res != null ) {
-                return res;
-            } else {
-                return new ArrayList<Reservation>();
-            }
-        } finally {
-            q.closeAll();
-        }
-    }
+	/**
+	 * Fetch the occupant names of every room at once from the reservation
+	 * log, so that processing a whole list of floors doesn't cost a query
+	 * per room.
+	 */
+	private void loadOccupancy() {
+		if(!this.addOccupants || this.occupancy != null) {
+			return;
+		}
+		this.occupancy = (new ReservationLog(pm)).occupantsByRoom();
+	}
 	
 	private Floor processFloor(Floor f) {
 		Logger.getGlobal().info("Floor "+f.getNumber()+" has "+f.getRooms().size()+" rooms.");
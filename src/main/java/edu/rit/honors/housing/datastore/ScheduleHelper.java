@@ -0,0 +1,84 @@
+package edu.rit.honors.housing.datastore;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+
+import com.google.api.server.spi.response.NotFoundException;
+
+import edu.rit.honors.housing.Housing;
+import edu.rit.honors.housing.jdo.SelectionSchedule;
+import edu.rit.honors.housing.jdo.StringList;
+
+/**
+ * Reads and writes the SelectionSchedule.
+ */
+public class ScheduleHelper {
+	
+	/**
+	 * @return the schedule, or null if there isn't one
+	 */
+	public static SelectionSchedule load(PersistenceManager pm) {
+		try {
+			return pm.getObjectById(SelectionSchedule.class, SelectionSchedule.KEY);
+		} catch (JDOObjectNotFoundException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Replaces the schedule.
+	 * 
+	 * @param salt the lottery seed, or null to draw a new one
+	 */
+	public static SelectionSchedule save(PersistenceManager pm, Date start, int windowMinutes, int groups, String salt) {
+		if(salt == null) {
+			salt = UUID.randomUUID().toString();
+		}
+		SelectionSchedule schedule = new SelectionSchedule(start, windowMinutes, groups, salt);
+		schedule.setGroupSizes(countGroups(schedule, pm));
+		return pm.makePersistent(schedule);
+	}
+	
+	public static void delete(PersistenceManager pm) {
+		SelectionSchedule schedule = load(pm);
+		if(schedule != null) {
+			pm.deletePersistent(schedule);
+		}
+	}
+	
+	/**
+	 * Updates the size of each group after the Student list changes.
+	 */
+	public static void recount(PersistenceManager pm) {
+		SelectionSchedule schedule = load(pm);
+		if(schedule != null && schedule.isScheduled()) {
+			schedule.setGroupSizes(countGroups(schedule, pm));
+			pm.makePersistent(schedule);
+		}
+	}
+	
+	private static List<Integer> countGroups(SelectionSchedule schedule, PersistenceManager pm) {
+		int[] counts = new int[schedule.getGroups()];
+		try {
+			StringList students = ListHelper.getList(Housing.STUDENT_PERMISSION, pm);
+			if(students.getStrings() != null) {
+				for(String email : students.getStrings()) {
+					counts[schedule.groupOf(email)]++;
+				}
+			}
+		} catch (NotFoundException e) {
+			// no students yet
+		}
+		List<Integer> sizes = new ArrayList<Integer>(counts.length);
+		for(int c : counts) {
+			sizes.add(c);
+		}
+		return sizes;
+	}
+
+}
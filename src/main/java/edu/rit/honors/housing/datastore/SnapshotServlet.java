@@ -0,0 +1,33 @@
+package edu.rit.honors.housing.datastore;
+
+import java.io.IOException;
+
+import javax.jdo.PersistenceManager;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.devrel.samples.ttt.PMF;
+
+/**
+ * Handles the cron job that writes the first occupancy snapshot, and a new
+ * one whenever enough reservations have been made since the last, so that
+ * rebuilding the occupants never replays much of the log.
+ */
+public class SnapshotServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			(new ReservationLog(pm)).compactIfBehind();
+		} finally {
+			pm.close();
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package edu.rit.honors.housing.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wakes up requests waiting for room changes.
+ * 
+ * Changes made on this instance are published directly.  Changes made on
+ * other instances are picked up through a ChangeFanout, which is checked at
+ * most once per poll interval however many requests are waiting.
+ * 
+ * The fanout is memcache unless the housing.changeFanout system property is
+ * "local", which keeps changes within the JVM for running without App Engine
+ * services.
+ */
+public class ChangeBus {
+	
+	private static final long POLL_MILLIS = 1000;
+	
+	private static final String FANOUT_PROPERTY = "housing.changeFanout";
+	
+	private static final ChangeBus INSTANCE = new ChangeBus(createFanout(), POLL_MILLIS);
+	
+	private final Object lock = new Object();
+	private final ChangeFanout fanout;
+	private final long pollMillis;
+	private final AtomicLong lastPolled = new AtomicLong();
+	private long latest = Long.MIN_VALUE;
+	
+	public ChangeBus(ChangeFanout fanout, long pollMillis) {
+		this.fanout = fanout;
+		this.pollMillis = pollMillis;
+	}
+	
+	/**
+	 * @return the bus shared by every request on this instance
+	 */
+	public static ChangeBus get() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Announce a change made by this instance.
+	 * 
+	 * @param version the number of the change, from RoomChangeLog
+	 */
+	public void publish(long version) {
+		this.observe(version);
+		try {
+			this.fanout.publish(version);
+		} catch (RuntimeException e) {
+			Logger.getGlobal().log(Level.WARNING, "Could not publish change "+version, e);
+		}
+	}
+	
+	/**
+	 * Wait until a change newer than since is made on any instance.
+	 * 
+	 * @param since the last change the caller has seen
+	 * @param timeout the longest time to wait, in milliseconds
+	 * @return the latest change known, which is not newer than since if the
+	 * 		wait timed out
+	 * @throws InterruptedException if the request is interrupted while waiting
+	 */
+	public long await(long since, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(true) {
+			this.poll();
+			synchronized(this.lock) {
+				if(this.latest > since) {
+					return this.latest;
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0) {
+					return this.latest;
+				}
+				this.lock.wait(Math.min(remaining, this.pollMillis));
+			}
+		}
+	}
+	
+	private static ChangeFanout createFanout() {
+		if("local".equals(System.getProperty(FANOUT_PROPERTY))) {
+			Logger.getGlobal().info("Sharing room changes within this JVM only");
+			return new LocalChangeFanout();
+		}
+		return new MemcacheChangeFanout();
+	}
+	
+	// Check the fanout for changes from other instances, unless another
+	// waiting request has just done so.
+	private void poll() {
+		long now = System.currentTimeMillis();
+		long last = this.lastPolled.get();
+		if(now - last < this.pollMillis || !this.lastPolled.compareAndSet(last, now)) {
+			return;
+		}
+		try {
+			this.observe(this.fanout.latest());
+		} catch (RuntimeException e) {
+			Logger.getGlobal().log(Level.WARNING, "Could not check for changes on other instances", e);
+		}
+	}
+	
+	private void observe(long version) {
+		synchronized(this.lock) {
+			if(version > this.latest) {
+				this.latest = version;
+				this.lock.notifyAll();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package edu.rit.honors.housing.events;
+
+/**
+ * Carries room changes between instances, so that requests parked on one
+ * instance wake up when a room is reserved through another.
+ */
+public interface ChangeFanout {
+	
+	/**
+	 * Tell other instances about a change made on this one.
+	 * 
+	 * @param version the number of the change, from RoomChangeLog
+	 */
+	void publish(long version);
+	
+	/**
+	 * @return the number of the latest change made on any instance
+	 */
+	long latest();
+
+}
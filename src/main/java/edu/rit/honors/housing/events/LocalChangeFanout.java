@@ -0,0 +1,26 @@
+package edu.rit.honors.housing.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares changes between ChangeBus instances in the same JVM, standing in
+ * for memcache when running without App Engine services.
+ */
+public class LocalChangeFanout implements ChangeFanout {
+	
+	private final AtomicLong latest = new AtomicLong(Long.MIN_VALUE);
+
+	@Override
+	public void publish(long version) {
+		long current = this.latest.get();
+		while(version > current && !this.latest.compareAndSet(current, version)) {
+			current = this.latest.get();
+		}
+	}
+
+	@Override
+	public long latest() {
+		return this.latest.get();
+	}
+
+}
@@ -0,0 +1,21 @@
+package edu.rit.honors.housing.events;
+
+import edu.rit.honors.housing.cache.RoomChangeLog;
+
+/**
+ * Shares changes through the RoomChangeLog sequence in memcache, which every
+ * change already updates.
+ */
+public class MemcacheChangeFanout implements ChangeFanout {
+
+	@Override
+	public void publish(long version) {
+		// RoomChangeLog.record has already moved the shared sequence on
+	}
+
+	@Override
+	public long latest() {
+		return RoomChangeLog.current();
+	}
+
+}
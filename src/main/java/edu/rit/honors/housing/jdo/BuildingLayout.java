@@ -0,0 +1,180 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of where the available rooms are: the floors, and the
+ * number, capacity, position and shading of each room on them, but not who
+ * lives there.
+ * 
+ * Each distinct bgpath is stored once, and rooms refer to it by index, since
+ * most rooms share one of a few shapes.
+ */
+public class BuildingLayout {
+	
+	private final String version;
+	private final String[] bgpaths;
+	private final List<FloorLayout> floors;
+	
+	// Maps room numbers to positions in floorOf and slotOf
+	private final RoomIndex index;
+	private final int[] floorOf;
+	private final int[] slotOf;
+	
+	/**
+	 * Build a layout from a list of floors, such as those in the datastore or
+	 * parsed from spec.json.  Floors with no rooms are left out.
+	 * 
+	 * @param source the floors, in order
+	 */
+	public BuildingLayout(List<Floor> source) {
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		List<String> paths = new ArrayList<String>();
+		List<FloorLayout> layouts = new ArrayList<FloorLayout>(source.size());
+		for(Floor f : source) {
+			List<Room> rooms = f.getRooms();
+			if(rooms == null || rooms.isEmpty()) {
+				continue;
+			}
+			int n = rooms.size();
+			int[] number = new int[n];
+			int[] capacity = new int[n];
+			int[] x = new int[n];
+			int[] y = new int[n];
+			int[] bgpath = new int[n];
+			for(int i = 0; i < n; i++) {
+				Room r = rooms.get(i);
+				number[i] = value(r.getNumber());
+				capacity[i] = value(r.getCapacity());
+				x[i] = value(r.getX());
+				y[i] = value(r.getY());
+				String path = (r.getBgpath() == null) ? "" : r.getBgpath();
+				Integer index = dictionary.get(path);
+				if(index == null) {
+					index = paths.size();
+					dictionary.put(path, index);
+					paths.add(path);
+				}
+				bgpath[i] = index;
+			}
+			layouts.add(new FloorLayout(f.getNumber(), number, capacity, x, y, bgpath));
+		}
+		this.bgpaths = paths.toArray(new String[paths.size()]);
+		this.floors = Collections.unmodifiableList(layouts);
+		
+		int size = this.size();
+		int[] numbers = new int[size];
+		this.floorOf = new int[size];
+		this.slotOf = new int[size];
+		int i = 0;
+		for(int f = 0; f < layouts.size(); f++) {
+			int[] rooms = layouts.get(f).getRooms();
+			for(int r = 0; r < rooms.length; r++, i++) {
+				numbers[i] = rooms[r];
+				this.floorOf[i] = f;
+				this.slotOf[i] = r;
+			}
+		}
+		this.index = new RoomIndex(numbers);
+		this.version = this.toFloors().getLayout();
+	}
+	
+	/**
+	 * @return identifies this layout; matches FloorList.getLayout for the same rooms
+	 */
+	public String getVersion() {
+		return version;
+	}
+	
+	/** @return the distinct bgpath values, indexed by FloorLayout.getBgpath */
+	public String[] getBgpaths() {
+		return bgpaths;
+	}
+	
+	public List<FloorLayout> getFloors() {
+		return floors;
+	}
+	
+	/**
+	 * @param number a room number
+	 * @return true if the room is in this layout
+	 */
+	public boolean contains(int number) {
+		return this.index.contains(number);
+	}
+	
+	/**
+	 * @param number a room number
+	 * @return the floor the room is on, or null if it isn't in this layout
+	 */
+	public FloorLayout floorOf(int number) {
+		int i = this.index.slotOf(number);
+		return (i < 0) ? null : this.floors.get(this.floorOf[i]);
+	}
+	
+	/**
+	 * @param number a room number
+	 * @return the position of the room in the arrays of its FloorLayout, or -1
+	 * 		if it isn't in this layout
+	 */
+	public int slotOf(int number) {
+		int i = this.index.slotOf(number);
+		return (i < 0) ? -1 : this.slotOf[i];
+	}
+	
+	/**
+	 * @param number a room number
+	 * @return the position of the room among all the rooms in the building, in
+	 * 		floor order, or -1 if it isn't in this layout
+	 */
+	public int indexOf(int number) {
+		return this.index.slotOf(number);
+	}
+	
+	/**
+	 * @return the number of rooms in the building
+	 */
+	public int size() {
+		int size = 0;
+		for(FloorLayout f : this.floors) {
+			size += f.getRooms().length;
+		}
+		return size;
+	}
+	
+	/**
+	 * Make a new FloorList from this layout, with no occupants.  The Rooms
+	 * share the bgpath strings of the layout.
+	 * 
+	 * @return a FloorList that can be modified freely
+	 */
+	public FloorList toFloors() {
+		List<Floor> list = new ArrayList<Floor>(this.floors.size());
+		for(FloorLayout f : this.floors) {
+			int[] numbers = f.getRooms();
+			List<Room> rooms = new ArrayList<Room>(numbers.length);
+			for(int i = 0; i < numbers.length; i++) {
+				Room r = new Room();
+				r.setNumber(numbers[i]);
+				r.setCapacity(f.getCapacity()[i]);
+				r.setX(f.getX()[i]);
+				r.setY(f.getY()[i]);
+				r.setBgpath(this.bgpaths[f.getBgpath()[i]]);
+				rooms.add(r);
+			}
+			Floor floor = new Floor(rooms);
+			floor.setNumber(f.getNumber());
+			list.add(floor);
+		}
+		return new FloorList(list);
+	}
+	
+	private static int value(Integer i) {
+		return (i == null) ? 0 : i;
+	}
+
+}
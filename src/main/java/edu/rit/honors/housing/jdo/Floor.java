@@ -1,26 +1,48 @@
 package edu.rit.honors.housing.jdo;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.jdo.annotations.IdGeneratorStrategy;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.PrimaryKey;
 
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 
 @PersistenceCapable
-public class Floor {
+public class Floor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @PrimaryKey
-    @Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+    @Persistent
     private Key key;
 
 	public void setKey(Key key) {
         this.key = key;
     }
 
+    /**
+     * @param number the floor number, which is unique across the spec
+     * @return the key of that floor
+     */
+    public static Key keyFor(String number) {
+        return KeyFactory.createKey(Floor.class.getSimpleName(), number);
+    }
+
+    public Key key() {
+        return key;
+    }
+
+    /**
+     * @return true if this floor has a generated id rather than a key by number
+     */
+    public boolean legacy() {
+        return key != null && key.getName() == null;
+    }
+
     @Persistent
     private String number;
 
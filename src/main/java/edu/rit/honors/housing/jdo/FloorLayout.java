@@ -0,0 +1,53 @@
+package edu.rit.honors.housing.jdo;
+
+/**
+ * The rooms on one floor of a BuildingLayout, stored as one array per
+ * property.  The i'th entry of every array describes the same room.
+ * 
+ * Instances are shared between requests; the arrays must not be modified.
+ */
+public class FloorLayout {
+	
+	private final String number;
+	private final int[] rooms;
+	private final int[] capacity;
+	private final int[] x;
+	private final int[] y;
+	private final int[] bgpath;
+	
+	FloorLayout(String number, int[] rooms, int[] capacity, int[] x, int[] y, int[] bgpath) {
+		this.number = number;
+		this.rooms = rooms;
+		this.capacity = capacity;
+		this.x = x;
+		this.y = y;
+		this.bgpath = bgpath;
+	}
+
+	public String getNumber() {
+		return number;
+	}
+
+	/** @return the room numbers */
+	public int[] getRooms() {
+		return rooms;
+	}
+
+	public int[] getCapacity() {
+		return capacity;
+	}
+
+	public int[] getX() {
+		return x;
+	}
+
+	public int[] getY() {
+		return y;
+	}
+
+	/** @return indexes into BuildingLayout.getBgpaths */
+	public int[] getBgpath() {
+		return bgpath;
+	}
+
+}
@@ -1,10 +1,23 @@
 package edu.rit.honors.housing.jdo;
 
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
-public class FloorList {
+public class FloorList implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	// FNV-1a parameters for hashing the layout
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
 	
 	private List<Floor> floors;
+	
+	// Computed from the floors when first needed.  Cached lists are shared
+	// between requests, so the index is published in one volatile field
+	private transient String layout;
+	private transient volatile Rooms rooms;
 
 	public List<Floor> getFloors() {
 		return floors;
@@ -12,6 +25,8 @@ public class FloorList {
 
 	public void setFloors(List<Floor> floors) {
 		this.floors = floors;
+		this.layout = null;
+		this.rooms = null;
 	}
 	
 	public FloorList(){}
@@ -19,24 +34,133 @@ public class FloorList {
 	public FloorList(List<Floor> floors){
 		this.floors = floors;
 	}
+	
+	/**
+	 * Identifies the layout of the building: the floors and rooms in order,
+	 * with the capacity, position and shading of each room, but not their
+	 * occupants.  Clients can keep using the rooms they have as long as this
+	 * doesn't change.
+	 * 
+	 * @return a hash of the layout, as a hex string
+	 */
+	public String getLayout() {
+		if(this.layout == null) {
+			long hash = FNV_OFFSET;
+			for(Floor f : this.floors) {
+				hash = hash(hash, f.getNumber());
+				for(Room r : f.getRooms()) {
+					hash = hash(hash, r.getNumber());
+					hash = hash(hash, r.getCapacity());
+					hash = hash(hash, r.getX());
+					hash = hash(hash, r.getY());
+					hash = hash(hash, r.getBgpath());
+				}
+			}
+			this.layout = Long.toHexString(hash);
+		}
+		return this.layout;
+	}
+	
+	/**
+	 * @return the number of occupants of every room, in the same order as the
+	 * 		rooms appear on the floors
+	 */
+	public int[] occupancy() {
+		int size = 0;
+		for(Floor f : this.floors) {
+			size += f.getRooms().size();
+		}
+		int[] occupants = new int[size];
+		int i = 0;
+		for(Floor f : this.floors) {
+			for(Room r : f.getRooms()) {
+				occupants[i++] = (r.getOccupants() == null) ? 0 : r.getOccupants();
+			}
+		}
+		return occupants;
+	}
+	
+	private static long hash(long hash, Object value) {
+		String s = String.valueOf(value);
+		for(int i = 0; i < s.length(); i++) {
+			hash = (hash ^ s.charAt(i)) * FNV_PRIME;
+		}
+		// separate values so that "1","23" and "12","3" differ
+		return (hash ^ 0xff) * FNV_PRIME;
+	}
+	
+	/**
+	 * Make a deep copy of this list, so that rooms can be changed without
+	 * affecting a cached copy.
+	 * 
+	 * @return a new FloorList with copies of every Floor and Room
+	 */
+	public FloorList copy() {
+		List<Floor> copies = new ArrayList<Floor>(this.floors.size());
+		for(Floor f : this.floors) {
+			Floor f2 = new Floor();
+			f2.setNumber(f.getNumber());
+			List<Room> rooms = new ArrayList<Room>(f.getRooms().size());
+			for(Room r : f.getRooms()) {
+				rooms.add(new Room(r));
+			}
+			f2.setRooms(rooms);
+			copies.add(f2);
+		}
+		return new FloorList(copies);
+	}
 
 	/**
-	 * Find the room corresponding to the room number
+	 * Find the room corresponding to the room number.  The rooms are indexed
+	 * the first time this is called, so rooms must not be added to or removed
+	 * from the floors afterwards.
 	 * 
 	 * @param room the room number to find
 	 * @return the Room with that number or null if not found
 	 */
 	public Room getRoom(Integer room) {
-        for(Floor f : this.getFloors()){
-        	if(f.getRooms() != null){
-	        	for(Room r : f.getRooms()) {
-	        		if(r.getNumber() != null && r.getNumber().equals(room)){
-	        			return r;
-	        		}
-	        	}
-        	}
-        }
-		return null;
+		if(room == null) {
+			return null;
+		}
+		Rooms rooms = this.rooms;
+		if(rooms == null) {
+			// requests racing to build it build the same index
+			rooms = this.buildIndex();
+			this.rooms = rooms;
+		}
+		int slot = rooms.index.slotOf(room);
+		return (slot < 0) ? null : rooms.rooms[slot];
+	}
+	
+	private Rooms buildIndex() {
+		List<Room> all = new ArrayList<Room>();
+		for(Floor f : this.floors) {
+			if(f.getRooms() != null) {
+				for(Room r : f.getRooms()) {
+					if(r.getNumber() != null) {
+						all.add(r);
+					}
+				}
+			}
+		}
+		Room[] rooms = all.toArray(new Room[all.size()]);
+		int[] numbers = new int[rooms.length];
+		for(int i = 0; i < rooms.length; i++) {
+			numbers[i] = rooms[i].getNumber();
+		}
+		return new Rooms(rooms, new RoomIndex(numbers));
+	}
+	
+	private static final class Rooms {
+		
+		final Room[] rooms;
+		final RoomIndex index;
+		
+		Rooms(Room[] rooms, RoomIndex index) {
+			this.rooms = rooms;
+			this.index = index;
+		}
+		
 	}
 
 }
@@ -0,0 +1,79 @@
+package edu.rit.honors.housing.jdo;
+
+/**
+ * How much space is left on a floor, or in the whole building.
+ */
+public class FloorSummary {
+	
+	private String number;
+	private Integer rooms;
+	private Integer beds;
+	private Integer free;
+	private Integer full;
+	private int[] roomsByFree;
+	
+	public FloorSummary() {}
+	
+	public FloorSummary(String number, int rooms, int beds, int free, int full, int[] roomsByFree) {
+		this.number = number;
+		this.rooms = rooms;
+		this.beds = beds;
+		this.free = free;
+		this.full = full;
+		this.roomsByFree = roomsByFree;
+	}
+
+	/** @return the floor number, or null for the whole building */
+	public String getNumber() {
+		return number;
+	}
+
+	public void setNumber(String number) {
+		this.number = number;
+	}
+
+	public Integer getRooms() {
+		return rooms;
+	}
+
+	public void setRooms(Integer rooms) {
+		this.rooms = rooms;
+	}
+
+	/** @return the total capacity of the rooms */
+	public Integer getBeds() {
+		return beds;
+	}
+
+	public void setBeds(Integer beds) {
+		this.beds = beds;
+	}
+
+	/** @return the number of beds not reserved */
+	public Integer getFree() {
+		return free;
+	}
+
+	public void setFree(Integer free) {
+		this.free = free;
+	}
+
+	/** @return the number of rooms with no free beds */
+	public Integer getFull() {
+		return full;
+	}
+
+	public void setFull(Integer full) {
+		this.full = full;
+	}
+
+	/** @return the number of rooms with exactly i free beds, at index i */
+	public int[] getRoomsByFree() {
+		return roomsByFree;
+	}
+
+	public void setRoomsByFree(int[] roomsByFree) {
+		this.roomsByFree = roomsByFree;
+	}
+
+}
@@ -1,19 +1,88 @@
 package edu.rit.honors.housing.jdo;
 
-import javax.jdo.annotations.IdGeneratorStrategy;
+import java.util.Date;
+
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
 
+/**
+ * Records the progress of loading spec.json.  There is only one, with the id
+ * ID, so it can be read and claimed in a transaction.  Tokens saved before
+ * progress was recorded have other ids, and mean initialization is complete.
+ */
 @PersistenceCapable
 public class InitializeToken {
 	
+	public static final Long ID = 1L;
+	
 	@PrimaryKey
-    @Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+    @Persistent
     private Long id;
 	
+	// the number of floors from spec.json that have been saved
+	@Persistent
+	private Integer floors = 0;
+	
+	@Persistent
+	private Boolean complete = false;
+	
+	// the initialization holding the token, and when it must renew it by
+	@Persistent
+	private String owner;
+	
+	@Persistent
+	private Date lease;
+	
+	public InitializeToken() {}
+	
+	public InitializeToken(Long id) {
+		this.id = id;
+	}
+	
 	public Long getId(){
 		return id;
 	}
+	
+	public Integer getFloors() {
+		return (floors == null) ? 0 : floors;
+	}
+	
+	public void setFloors(Integer floors) {
+		this.floors = floors;
+	}
+	
+	/**
+	 * @return true if every floor has been saved, or this token is from before
+	 * 		progress was recorded
+	 */
+	public boolean isComplete() {
+		return complete == null || complete || !ID.equals(id);
+	}
+	
+	public void setComplete(Boolean complete) {
+		this.complete = complete;
+	}
+	
+	public String getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * @return true if an initialization other than owner holds the token
+	 */
+	public boolean isHeld(String owner, Date now) {
+		return this.owner != null && !this.owner.equals(owner)
+				&& this.lease != null && this.lease.after(now);
+	}
+	
+	/**
+	 * Takes the token for an initialization until the given time, or releases
+	 * it if owner is null.
+	 */
+	public void hold(String owner, Date until) {
+		this.owner = owner;
+		this.lease = until;
+	}
 
 }
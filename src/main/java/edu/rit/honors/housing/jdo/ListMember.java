@@ -0,0 +1,83 @@
+package edu.rit.honors.housing.jdo;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * Records that a string is on a StringList, keyed by list and string, so
+ * membership can be checked with a get by key instead of loading the list.
+ * Each indexed list also has a marker entry, written once every member has
+ * been indexed; lists without one must be checked by loading them.  Members
+ * are keyed "list|member" and markers "list#indexed", so no member, not even
+ * an empty string, can share the marker's key.
+ */
+@PersistenceCapable
+public class ListMember {
+	
+	public static final String KIND = "ListMember";
+	
+	private static final String INDEXED = "#indexed";
+	
+	@Persistent
+	@PrimaryKey
+	private String key;
+	
+	@Persistent
+	private String list;
+	
+	@Persistent
+	private String member;
+	
+	public ListMember() {}
+	
+	public ListMember(String list, String member) {
+		this.key = keyFor(list, member);
+		this.list = list;
+		this.member = member;
+	}
+	
+	/**
+	 * @return the marker that says every member of the list is indexed
+	 */
+	public static ListMember indexed(String list) {
+		ListMember marker = new ListMember();
+		marker.key = list + INDEXED;
+		marker.list = list;
+		return marker;
+	}
+	
+	public static String keyFor(String list, String member) {
+		return list + "|" + member;
+	}
+	
+	/**
+	 * @return the datastore key of the entry for member on list
+	 */
+	public static Key key(String list, String member) {
+		return KeyFactory.createKey(KIND, keyFor(list, member));
+	}
+	
+	/**
+	 * @return the datastore key of the marker for list
+	 */
+	public static Key indexedKey(String list) {
+		return KeyFactory.createKey(KIND, list + INDEXED);
+	}
+	
+	public String getKey() {
+		return key;
+	}
+	
+	public String getList() {
+		return list;
+	}
+	
+	public String getMember() {
+		return member;
+	}
+
+}
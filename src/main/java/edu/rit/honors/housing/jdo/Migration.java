@@ -0,0 +1,52 @@
+package edu.rit.honors.housing.jdo;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * The progress of converting entities saved in an older format, keyed by the
+ * name of what is being migrated.
+ */
+@PersistenceCapable
+public class Migration {
+	
+	@Persistent
+	@PrimaryKey
+	private String name;
+	
+	@Persistent
+	private Integer migrated = 0;
+	
+	@Persistent
+	private Boolean complete = false;
+	
+	public Migration() {}
+	
+	public Migration(String name) {
+		this.name = name;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/** @return the number of entities converted so far */
+	public Integer getMigrated() {
+		return migrated;
+	}
+	
+	public void setMigrated(Integer migrated) {
+		this.migrated = migrated;
+	}
+	
+	/** @return true once no entities in the old format are left */
+	public Boolean getComplete() {
+		return complete;
+	}
+	
+	public void setComplete(Boolean complete) {
+		this.complete = complete;
+	}
+
+}
@@ -0,0 +1,36 @@
+package edu.rit.honors.housing.jdo;
+
+/**
+ * The number of occupants of every available room, in the order the rooms
+ * appear in the FloorList with the same layout.
+ */
+public class Occupancy {
+	
+	private String layout;
+	
+	private int[] occupants;
+	
+	public Occupancy() {}
+	
+	public Occupancy(String layout, int[] occupants) {
+		this.layout = layout;
+		this.occupants = occupants;
+	}
+
+	public String getLayout() {
+		return layout;
+	}
+
+	public void setLayout(String layout) {
+		this.layout = layout;
+	}
+
+	public int[] getOccupants() {
+		return occupants;
+	}
+
+	public void setOccupants(int[] occupants) {
+		this.occupants = occupants;
+	}
+
+}
@@ -0,0 +1,141 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.jdo.annotations.Extension;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * The reservations as of some time, compacted from the ReservationEvent log.
+ * The head records the time of the current snapshot, its version and how many
+ * parts there are; the students are in the parts, assigned by the hash of
+ * their email.  Parts are keyed by the version of their snapshot, so a
+ * snapshot being written never overwrites the parts of the current one, and
+ * the head is switched to it in a transaction once its parts are written.
+ */
+@PersistenceCapable
+public class OccupancySnapshot {
+	
+	private static final String PREFIX = "occupancy#";
+	private static final String HEAD = PREFIX + "head";
+	
+	@Persistent
+	@PrimaryKey
+	private String key;
+	
+	@Persistent
+	private Long version;
+	
+	@Persistent
+	private Date time;
+	
+	@Persistent
+	private Integer parts;
+	
+	@Persistent
+	private Integer reservations;
+	
+	// parallel lists, one entry per student
+	@Persistent(extensions=@Extension(vendorName="datanucleus", key="gae.unindexed", value="true"))
+	private List<String> users = new ArrayList<String>();
+	
+	@Persistent(extensions=@Extension(vendorName="datanucleus", key="gae.unindexed", value="true"))
+	private List<String> fullnames = new ArrayList<String>();
+	
+	@Persistent(extensions=@Extension(vendorName="datanucleus", key="gae.unindexed", value="true"))
+	private List<Integer> rooms = new ArrayList<Integer>();
+	
+	public OccupancySnapshot() {}
+	
+	/**
+	 * @return a new head, without a snapshot
+	 */
+	public static OccupancySnapshot head() {
+		OccupancySnapshot head = new OccupancySnapshot();
+		head.key = HEAD;
+		return head;
+	}
+	
+	public OccupancySnapshot(long version, int part) {
+		this.key = keyFor(version, part);
+		this.version = version;
+	}
+	
+	public static String headKey() {
+		return HEAD;
+	}
+	
+	public static String keyFor(long version, int part) {
+		return PREFIX + version + "#" + part;
+	}
+	
+	/**
+	 * @return the part of a snapshot with the given number of parts that holds user
+	 */
+	public static int partOf(String user, int parts) {
+		return (user.hashCode() & Integer.MAX_VALUE) % parts;
+	}
+	
+	public void add(String user, String fullname, Integer room) {
+		this.users.add(user);
+		this.fullnames.add(fullname);
+		this.rooms.add(room);
+	}
+	
+	public String getKey() {
+		return key;
+	}
+	
+	/** @return the snapshot the head points to, or that the part belongs to */
+	public Long getVersion() {
+		return version;
+	}
+	
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+	
+	/** @return every event up to this time is included */
+	public Date getTime() {
+		return time;
+	}
+	
+	public void setTime(Date time) {
+		this.time = time;
+	}
+	
+	/** @return the number of parts, set on the head only */
+	public Integer getParts() {
+		return parts;
+	}
+	
+	public void setParts(Integer parts) {
+		this.parts = parts;
+	}
+	
+	/** @return the number of reservations in every part, set on the head only */
+	public Integer getReservations() {
+		return reservations;
+	}
+	
+	public void setReservations(Integer reservations) {
+		this.reservations = reservations;
+	}
+	
+	public List<String> users() {
+		return users;
+	}
+	
+	public List<String> fullnames() {
+		return fullnames;
+	}
+	
+	public List<Integer> rooms() {
+		return rooms;
+	}
+
+}
@@ -0,0 +1,59 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The free beds on every floor and in the whole building, as of one version
+ * of the room changes.
+ */
+public class OccupancySummary {
+	
+	private String layout;
+	private Long version;
+	private FloorSummary building;
+	private List<FloorSummary> floors = new ArrayList<FloorSummary>();
+	
+	public OccupancySummary() {}
+	
+	public OccupancySummary(String layout, Long version) {
+		this.layout = layout;
+		this.version = version;
+	}
+
+	/** @return the layout the summary was computed for, as in FloorList.getLayout */
+	public String getLayout() {
+		return layout;
+	}
+
+	public void setLayout(String layout) {
+		this.layout = layout;
+	}
+
+	/** @return the latest room change included, as in RoomChanges.getVersion */
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	/** @return the totals of every floor */
+	public FloorSummary getBuilding() {
+		return building;
+	}
+
+	public void setBuilding(FloorSummary building) {
+		this.building = building;
+	}
+
+	public List<FloorSummary> getFloors() {
+		return floors;
+	}
+
+	public void setFloors(List<FloorSummary> floors) {
+		this.floors = floors;
+	}
+
+}
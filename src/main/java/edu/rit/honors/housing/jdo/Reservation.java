@@ -6,14 +6,22 @@ import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.IdentityType;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
-import javax.jdo.annotations.IdGeneratorStrategy;
 
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * A student's reservation, keyed by the student's email so it can be found
+ * with a get by key and a student can't have more than one.  Reservations
+ * saved before that have numeric ids until they are migrated.
+ */
 @PersistenceCapable(identityType = IdentityType.APPLICATION)
 public class Reservation {
 
     @PrimaryKey
-    @Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
-    private Long id;
+    @Persistent
+    private Key key;
 
     @Persistent
     private Integer roomNumber;
@@ -30,14 +38,57 @@ public class Reservation {
     public Reservation(){}
 
     public Reservation(String email, String fullname, Integer roomNumber, Date date) {
+        this.key = keyFor(email);
         this.user = email;
         this.fullname = fullname;
         this.roomNumber = roomNumber;
         this.date = date;
     }
 
-    public Long getId() {
-        return id;
+    /**
+     * @param email the student's email address
+     * @return the key of that student's reservation
+     */
+    public static Key keyFor(String email) {
+        return KeyFactory.createKey(Reservation.class.getSimpleName(), email);
+    }
+
+    /**
+     * @param e a Reservation entity read with the low-level datastore API
+     * @return a transient copy of the reservation, for reading
+     */
+    public static Reservation fromEntity(Entity e) {
+        Number room = (Number) e.getProperty("roomNumber");
+        Reservation r = new Reservation((String) e.getProperty("user"), (String) e.getProperty("fullname"),
+                (room == null) ? null : room.intValue(), (Date) e.getProperty("date"));
+        r.key = e.getKey();
+        return r;
+    }
+
+    public Key key() {
+        return key;
+    }
+
+    /**
+     * Kept so responses have the same shape as before reservations were
+     * keyed by email.  Endpoints sends ids as strings either way.
+     *
+     * @return the email the reservation is keyed by, or the numeric id of
+     * 		a reservation that hasn't been migrated
+     */
+    public String getId() {
+        if(key == null) {
+            return null;
+        }
+        return (key.getName() != null) ? key.getName() : Long.toString(key.getId());
+    }
+
+    /**
+     * @return true if this reservation has a numeric id from before reservations
+     * 		were keyed by email
+     */
+    public boolean legacy() {
+        return key != null && key.getName() == null;
     }
 
     public String getUser() {
@@ -0,0 +1,100 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.Date;
+
+import javax.jdo.annotations.Extension;
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * One change to a student's reservation, written in the same transaction as
+ * the change.  Events are never updated or deleted, so together they are the
+ * complete history of every reservation.
+ */
+@PersistenceCapable
+public class ReservationEvent {
+	
+	public static final String RESERVE = "reserve";
+	public static final String MOVE = "move";
+	public static final String CANCEL = "cancel";
+	
+	@PrimaryKey
+	@Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+	private Long id;
+	
+	@Persistent
+	private String type;
+	
+	@Persistent
+	private String user;
+	
+	@Persistent(extensions=@Extension(vendorName="datanucleus", key="gae.unindexed", value="true"))
+	private String fullname;
+	
+	@Persistent(extensions=@Extension(vendorName="datanucleus", key="gae.unindexed", value="true"))
+	private Integer roomNumber;
+	
+	@Persistent(extensions=@Extension(vendorName="datanucleus", key="gae.unindexed", value="true"))
+	private Integer fromRoom;
+	
+	@Persistent
+	private Date time;
+	
+	public ReservationEvent() {}
+	
+	private ReservationEvent(String type, String user, String fullname, Integer roomNumber, Integer fromRoom) {
+		this.type = type;
+		this.user = user;
+		this.fullname = fullname;
+		this.roomNumber = roomNumber;
+		this.fromRoom = fromRoom;
+		this.time = new Date();
+	}
+	
+	/**
+	 * @param from the room the student had before, or null if they had none
+	 * @return a reserve event, or a move event if the student had a room
+	 */
+	public static ReservationEvent reserve(String user, String fullname, Integer room, Integer from) {
+		return new ReservationEvent((from == null) ? RESERVE : MOVE, user, fullname, room, from);
+	}
+	
+	public static ReservationEvent cancel(String user, String fullname, Integer from) {
+		return new ReservationEvent(CANCEL, user, fullname, null, from);
+	}
+	
+	public Long getId() {
+		return id;
+	}
+	
+	/** @return reserve, move or cancel */
+	public String getType() {
+		return type;
+	}
+	
+	/** @return the student's email */
+	public String getUser() {
+		return user;
+	}
+	
+	public String getFullname() {
+		return fullname;
+	}
+	
+	/** @return the room the student has after the event, or null if cancelled */
+	public Integer getRoomNumber() {
+		return roomNumber;
+	}
+	
+	/** @return the room the student had before the event, or null if none */
+	public Integer getFromRoom() {
+		return fromRoom;
+	}
+	
+	public Date getTime() {
+		return time;
+	}
+
+}
@@ -0,0 +1,27 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the ReservationEvent log, newest first.
+ */
+public class ReservationHistory {
+	
+	private List<ReservationEvent> events = new ArrayList<ReservationEvent>();
+	
+	public ReservationHistory() {}
+	
+	public ReservationHistory(List<ReservationEvent> events) {
+		this.events = events;
+	}
+
+	public List<ReservationEvent> getEvents() {
+		return events;
+	}
+
+	public void setEvents(List<ReservationEvent> events) {
+		this.events = events;
+	}
+
+}
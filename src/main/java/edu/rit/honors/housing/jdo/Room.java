@@ -1,27 +1,43 @@
 package edu.rit.honors.housing.jdo;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.jdo.annotations.IdGeneratorStrategy;
 import javax.jdo.annotations.NotPersistent;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.PrimaryKey;
 
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 
 @PersistenceCapable
-public class Room {
+public class Room implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @PrimaryKey
-    @Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+    @Persistent
     private Key key;
 
     public void setKey(Key key) {
         this.key = key;
     }
 
+    /**
+     * @param floor the key of the floor the room is on
+     * @param number the room number
+     * @return the key of that room
+     */
+    public static Key keyFor(Key floor, Integer number) {
+        return KeyFactory.createKey(floor, Room.class.getSimpleName(), number.toString());
+    }
+
+    public Key key() {
+        return key;
+    }
+
     @Persistent
     private Integer number;
 
@@ -52,6 +68,9 @@ public class Room {
         this.y = r.y;
         this.occupants = r.occupants;
         this.bgpath = r.bgpath;
+        if(r.occupantNames != null) {
+            this.occupantNames = new ArrayList<String>(r.occupantNames);
+        }
     }
     
     public Integer getNumber() {
@@ -0,0 +1,66 @@
+package edu.rit.honors.housing.jdo;
+
+/**
+ * A room found by a search, with its current number of occupants.
+ */
+public class RoomAvailability {
+	
+	private Integer number;
+	private String floor;
+	private Integer capacity;
+	private Integer occupants;
+	private Integer free;
+	
+	public RoomAvailability() {}
+	
+	public RoomAvailability(int number, String floor, int capacity, int occupants, int free) {
+		this.number = number;
+		this.floor = floor;
+		this.capacity = capacity;
+		this.occupants = occupants;
+		this.free = free;
+	}
+
+	public Integer getNumber() {
+		return number;
+	}
+
+	public void setNumber(Integer number) {
+		this.number = number;
+	}
+
+	/** @return the number of the floor the room is on */
+	public String getFloor() {
+		return floor;
+	}
+
+	public void setFloor(String floor) {
+		this.floor = floor;
+	}
+
+	public Integer getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(Integer capacity) {
+		this.capacity = capacity;
+	}
+
+	public Integer getOccupants() {
+		return occupants;
+	}
+
+	public void setOccupants(Integer occupants) {
+		this.occupants = occupants;
+	}
+
+	/** @return the number of beds not reserved */
+	public Integer getFree() {
+		return free;
+	}
+
+	public void setFree(Integer free) {
+		this.free = free;
+	}
+
+}
@@ -0,0 +1,61 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rooms that changed since a client last checked.
+ * 
+ * If floors is set the client must replace everything it has with it;
+ * otherwise it should replace the rooms listed in rooms and drop the rooms
+ * listed in removed.  Either way, version is passed back on the next request.
+ */
+public class RoomChanges {
+	
+	private Long version;
+	
+	private List<Room> rooms = new ArrayList<Room>();
+	
+	private List<Integer> removed = new ArrayList<Integer>();
+	
+	private FloorList floors;
+	
+	public RoomChanges() {}
+	
+	public RoomChanges(Long version) {
+		this.version = version;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	public List<Room> getRooms() {
+		return rooms;
+	}
+
+	public void setRooms(List<Room> rooms) {
+		this.rooms = rooms;
+	}
+
+	public List<Integer> getRemoved() {
+		return removed;
+	}
+
+	public void setRemoved(List<Integer> removed) {
+		this.removed = removed;
+	}
+
+	public FloorList getFloors() {
+		return floors;
+	}
+
+	public void setFloors(FloorList floors) {
+		this.floors = floors;
+	}
+
+}
@@ -0,0 +1,117 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.Arrays;
+
+/**
+ * Maps room numbers to their position (slot) in a list of rooms without boxing
+ * them.  Room numbers that fall in a compact range are looked up directly in
+ * an array; otherwise an open-addressing hash table is used.
+ * 
+ * An index is immutable once built.  If a room number appears more than once,
+ * the first slot is kept.
+ */
+public class RoomIndex {
+	
+	private static final int ABSENT = -1;
+	
+	// The most empty entries per room before switching to a hash table
+	private static final int DIRECT_SPREAD = 8;
+	
+	private final int size;
+	
+	// Direct addressing: slots[number - min]
+	private final int min;
+	private final int[] slots;
+	
+	// Hash table: keys and values at the same position, linear probing
+	private final int[] keys;
+	private final int[] values;
+	private final int mask;
+	
+	/**
+	 * @param numbers the room number in each slot
+	 */
+	public RoomIndex(int[] numbers) {
+		this.size = numbers.length;
+		int lo = Integer.MAX_VALUE;
+		int hi = Integer.MIN_VALUE;
+		for(int n : numbers) {
+			lo = Math.min(lo, n);
+			hi = Math.max(hi, n);
+		}
+		long range = (numbers.length == 0) ? 0 : (long) hi - lo + 1;
+		if(range <= (long) DIRECT_SPREAD * numbers.length + 64) {
+			this.min = lo;
+			this.slots = new int[(int) range];
+			Arrays.fill(this.slots, ABSENT);
+			for(int i = 0; i < numbers.length; i++) {
+				int pos = numbers[i] - lo;
+				if(this.slots[pos] == ABSENT) {
+					this.slots[pos] = i;
+				}
+			}
+			this.keys = null;
+			this.values = null;
+			this.mask = 0;
+		} else {
+			int capacity = Integer.highestOneBit(Math.max(numbers.length, 1) * 2 - 1) << 1;
+			this.min = 0;
+			this.slots = null;
+			this.keys = new int[capacity];
+			this.values = new int[capacity];
+			this.mask = capacity - 1;
+			Arrays.fill(this.values, ABSENT);
+			for(int i = 0; i < numbers.length; i++) {
+				int pos = this.probe(numbers[i]);
+				if(this.values[pos] == ABSENT) {
+					this.keys[pos] = numbers[i];
+					this.values[pos] = i;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param number a room number
+	 * @return the slot of that room, or -1 if it isn't in the index
+	 */
+	public int slotOf(int number) {
+		if(this.slots != null) {
+			long pos = (long) number - this.min;
+			return (pos < 0 || pos >= this.slots.length) ? ABSENT : this.slots[(int) pos];
+		} else {
+			return this.values[this.probe(number)];
+		}
+	}
+	
+	/**
+	 * @param number a room number
+	 * @return true if the room is in the index
+	 */
+	public boolean contains(int number) {
+		return this.slotOf(number) != ABSENT;
+	}
+	
+	/**
+	 * @return the number of slots indexed
+	 */
+	public int size() {
+		return this.size;
+	}
+	
+	// find the position of number in the hash table, or the empty position
+	// where it would go
+	private int probe(int number) {
+		int pos = mix(number) & this.mask;
+		while(this.values[pos] != ABSENT && this.keys[pos] != number) {
+			pos = (pos + 1) & this.mask;
+		}
+		return pos;
+	}
+	
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,53 @@
+package edu.rit.honors.housing.jdo;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * The number of reservations for a single room, keyed by room number.  It is
+ * updated in the same transaction as the Reservation so that concurrent
+ * reservations cannot overbook the room.
+ */
+@PersistenceCapable
+public class RoomOccupancy {
+
+    @Persistent
+    @PrimaryKey
+    private String key;
+
+    @Persistent
+    private Integer occupants = 0;
+
+    public RoomOccupancy() {}
+
+    public RoomOccupancy(Integer room, Integer occupants) {
+        this.key = keyFor(room);
+        this.occupants = occupants;
+    }
+
+    /**
+     * @param room the room number
+     * @return the primary key of the counter for that room
+     */
+    public static String keyFor(Integer room) {
+        return room.toString();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Integer getRoomNumber() {
+        return Integer.valueOf(key);
+    }
+
+    public Integer getOccupants() {
+        return occupants;
+    }
+
+    public void setOccupants(Integer occupants) {
+        this.occupants = occupants;
+    }
+
+}
@@ -0,0 +1,48 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rooms matching a search, as of one version of the room changes.
+ */
+public class RoomSearch {
+	
+	private String layout;
+	private Long version;
+	private List<RoomAvailability> rooms = new ArrayList<RoomAvailability>();
+	
+	public RoomSearch() {}
+	
+	public RoomSearch(String layout, Long version) {
+		this.layout = layout;
+		this.version = version;
+	}
+
+	/** @return the layout searched, as in FloorList.getLayout */
+	public String getLayout() {
+		return layout;
+	}
+
+	public void setLayout(String layout) {
+		this.layout = layout;
+	}
+
+	/** @return the latest room change included, as in RoomChanges.getVersion */
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	public List<RoomAvailability> getRooms() {
+		return rooms;
+	}
+
+	public void setRooms(List<RoomAvailability> rooms) {
+		this.rooms = rooms;
+	}
+
+}
@@ -0,0 +1,132 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * When each student may reserve a room.  Students are split into groups by
+ * a lottery on their email, and each group's window opens windowMinutes
+ * after the one before it, starting at start.  Once a group's window opens
+ * it stays open.
+ * 
+ * There is at most one schedule, with the key KEY.  Without one every
+ * student may reserve at any time.
+ */
+@PersistenceCapable
+public class SelectionSchedule {
+	
+	public static final String KEY = "schedule";
+	
+	@Persistent
+	@PrimaryKey
+	private String key;
+	
+	@Persistent
+	private Date start;
+	
+	@Persistent
+	private Integer windowMinutes;
+	
+	@Persistent
+	private Integer groups;
+	
+	@Persistent
+	private String salt;
+	
+	// the number of students on the Student list in each group
+	@Persistent
+	private List<Integer> groupSizes = new ArrayList<Integer>();
+	
+	public SelectionSchedule() {}
+	
+	/**
+	 * Copy constructor, for keeping a schedule after its PersistenceManager is closed
+	 */
+	public SelectionSchedule(SelectionSchedule other) {
+		this.key = other.key;
+		this.start = other.start;
+		this.windowMinutes = other.windowMinutes;
+		this.groups = other.groups;
+		this.salt = other.salt;
+		this.groupSizes = new ArrayList<Integer>(other.getGroupSizes());
+	}
+	
+	public SelectionSchedule(Date start, Integer windowMinutes, Integer groups, String salt) {
+		this.key = KEY;
+		this.start = start;
+		this.windowMinutes = windowMinutes;
+		this.groups = groups;
+		this.salt = salt;
+	}
+	
+	/**
+	 * @return true if reservations are limited to windows
+	 */
+	public boolean isScheduled() {
+		return start != null && groups != null && groups > 0;
+	}
+	
+	/**
+	 * @return the lottery group of a student, from 0 to groups - 1
+	 */
+	public int groupOf(String email) {
+		// FNV-1a, so the groups don't depend on String.hashCode's weak mixing
+		int hash = 0x811c9dc5;
+		String s = salt + ":" + email.toLowerCase();
+		for(int i = 0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x01000193;
+		}
+		return (hash & Integer.MAX_VALUE) % groups;
+	}
+	
+	/**
+	 * @return when the window of a group opens, in milliseconds since the epoch
+	 */
+	public long windowStart(int group) {
+		return start.getTime() + group * windowMinutes * 60L * 1000;
+	}
+	
+	/**
+	 * @return how long until a student may reserve, in milliseconds, or 0 if they may now
+	 */
+	public long waitMillis(String email, long now) {
+		if(!this.isScheduled()) {
+			return 0;
+		}
+		return Math.max(0, this.windowStart(this.groupOf(email)) - now);
+	}
+	
+	public Date getStart() {
+		return start;
+	}
+	
+	public Integer getWindowMinutes() {
+		return windowMinutes;
+	}
+	
+	public Integer getGroups() {
+		return groups;
+	}
+	
+	public String getSalt() {
+		return salt;
+	}
+	
+	public List<Integer> getGroupSizes() {
+		if(groupSizes == null) {
+			groupSizes = new ArrayList<Integer>();
+		}
+		return groupSizes;
+	}
+	
+	public void setGroupSizes(List<Integer> groupSizes) {
+		this.groupSizes = groupSizes;
+	}
+
+}
@@ -0,0 +1,79 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.Date;
+
+/**
+ * A student's place in the selection schedule.
+ */
+public class SelectionStatus {
+	
+	private Integer group;
+	private Date windowStart;
+	private Boolean open;
+	private Long waitSeconds;
+	private Integer ahead;
+	private Integer waiting;
+	
+	public SelectionStatus() {}
+	
+	/**
+	 * @param schedule the current schedule
+	 * @param email the student's email
+	 * @param now the current time in milliseconds
+	 */
+	public SelectionStatus(SelectionSchedule schedule, String email, long now) {
+		this.open = true;
+		this.waitSeconds = 0L;
+		this.ahead = 0;
+		this.waiting = 0;
+		if(!schedule.isScheduled()) {
+			return;
+		}
+		this.group = schedule.groupOf(email);
+		this.windowStart = new Date(schedule.windowStart(this.group));
+		this.waitSeconds = (schedule.waitMillis(email, now) + 999) / 1000;
+		this.open = this.waitSeconds == 0;
+		
+		int g = 0;
+		for(Integer size : schedule.getGroupSizes()) {
+			if(g < this.group) {
+				this.ahead += size;
+			}
+			if(schedule.windowStart(g) > now) {
+				this.waiting += size;
+			}
+			g++;
+		}
+	}
+	
+	/** @return the student's lottery group, or null if there is no schedule */
+	public Integer getGroup() {
+		return group;
+	}
+	
+	/** @return when the student may start reserving */
+	public Date getWindowStart() {
+		return windowStart;
+	}
+	
+	/** @return true if the student may reserve now */
+	public Boolean getOpen() {
+		return open;
+	}
+	
+	/** @return the estimated time until the student may reserve */
+	public Long getWaitSeconds() {
+		return waitSeconds;
+	}
+	
+	/** @return the number of students in earlier groups */
+	public Integer getAhead() {
+		return ahead;
+	}
+	
+	/** @return the number of students whose windows haven't opened yet */
+	public Integer getWaiting() {
+		return waiting;
+	}
+
+}
@@ -23,6 +23,11 @@ public class StringList {
     @Persistent
     private Set<String> string;
     
+    // the number of StringListShards holding the strings, or null if they
+    // are stored in this entity
+    @Persistent
+    private Integer shards;
+    
     public String getKey(){
     	return key;
     }
@@ -43,6 +48,14 @@ public class StringList {
     	}
     }
     
+    public Integer shards(){
+    	return shards;
+    }
+    
+    public void setShards(Integer shards){
+    	this.shards = shards;
+    }
+    
     public StringList(){}
     
     public StringList(Collection<String> strings){ this.setStrings(strings); }
@@ -0,0 +1,64 @@
+package edu.rit.honors.housing.jdo;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.jdo.annotations.Extension;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * One part of a large StringList.  Members are assigned to a shard by the
+ * hash of the string, so a change to a few members only rewrites the shards
+ * that hold them.
+ */
+@PersistenceCapable
+public class StringListShard {
+	
+	@Persistent
+	@PrimaryKey
+	private String key;
+	
+	// unindexed, so a shard isn't limited by the number of index entries
+	@Persistent(extensions=@Extension(vendorName="datanucleus", key="gae.unindexed", value="true"))
+	private Set<String> string;
+	
+	public StringListShard() {}
+	
+	public StringListShard(String list, int shard) {
+		this.key = keyFor(list, shard);
+		this.string = new TreeSet<String>();
+	}
+	
+	public static String keyFor(String list, int shard) {
+		return list + "#" + shard;
+	}
+	
+	/**
+	 * @return the shard of a list with the given number of shards that holds s
+	 */
+	public static int shardOf(String s, int shards) {
+		return (s.hashCode() & Integer.MAX_VALUE) % shards;
+	}
+	
+	public String getKey() {
+		return key;
+	}
+	
+	/**
+	 * @return the members of this shard, never null
+	 */
+	public Set<String> getStrings() {
+		if(this.string == null) {
+			// empty collections are stored as null
+			this.string = new TreeSet<String>();
+		}
+		return string;
+	}
+	
+	public void setStrings(Set<String> strings) {
+		this.string = strings;
+	}
+
+}
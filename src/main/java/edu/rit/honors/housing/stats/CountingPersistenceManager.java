@@ -0,0 +1,98 @@
+package edu.rit.honors.housing.stats;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+
+/**
+ * Wraps a PersistenceManagerFactory so that the PersistenceManagers and
+ * Queries it hands out count their datastore operations in Metrics.
+ * 
+ * Only explicit calls are counted: changes written because a persistent
+ * object was modified outside a makePersistent call are not.
+ */
+public class CountingPersistenceManager implements InvocationHandler {
+	
+	private final Object target;
+	
+	private CountingPersistenceManager(Object target) {
+		this.target = target;
+	}
+	
+	/**
+	 * @param pmf the factory to wrap
+	 * @return a factory that hands out counting PersistenceManagers
+	 */
+	public static PersistenceManagerFactory wrap(PersistenceManagerFactory pmf) {
+		return wrap(pmf, PersistenceManagerFactory.class);
+	}
+	
+	private static <T> T wrap(T target, Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				new CountingPersistenceManager(target)));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		this.count(method.getName(), args);
+		Object result;
+		try {
+			result = method.invoke(this.target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+		if(result instanceof PersistenceManager && !(result instanceof Proxy)) {
+			return wrap((PersistenceManager) result, PersistenceManager.class);
+		} else if(result instanceof Query && !(result instanceof Proxy)) {
+			return wrap((Query) result, Query.class);
+		}
+		return result;
+	}
+	
+	private void count(String name, Object[] args) {
+		if(this.target instanceof Query) {
+			if(name.startsWith("execute")) {
+				Metrics.countQuery();
+			} else if(name.equals("deletePersistentAll")) {
+				Metrics.countQuery();
+				Metrics.countDeletes(1);
+			}
+		} else if(this.target instanceof PersistenceManager) {
+			if(name.equals("getObjectById")) {
+				Metrics.countGets(1);
+			} else if(name.equals("getObjectsById")) {
+				Metrics.countGets(size(args));
+			} else if(name.equals("makePersistent")) {
+				Metrics.countPuts(1);
+			} else if(name.equals("makePersistentAll")) {
+				Metrics.countPuts(size(args));
+			} else if(name.equals("deletePersistent")) {
+				Metrics.countDeletes(1);
+			} else if(name.equals("deletePersistentAll")) {
+				Metrics.countDeletes(size(args));
+			}
+		}
+	}
+	
+	// the number of objects passed to a bulk operation
+	private static int size(Object[] args) {
+		if(args == null) {
+			return 0;
+		}
+		for(Object arg : args) {
+			if(arg instanceof Collection<?>) {
+				return ((Collection<?>) arg).size();
+			} else if(arg instanceof Object[]) {
+				return ((Object[]) arg).length;
+			}
+		}
+		return 1;
+	}
+
+}
@@ -0,0 +1,118 @@
+package edu.rit.honors.housing.stats;
+
+/**
+ * Latency percentiles and average datastore operations per request for one
+ * API method on one instance.
+ */
+public class EndpointReport {
+	
+	private String name;
+	private long requests;
+	private long errors;
+	private double meanMillis;
+	private double p50Millis;
+	private double p90Millis;
+	private double p99Millis;
+	private double maxMillis;
+	private double queriesPerRequest;
+	private double getsPerRequest;
+	private double putsPerRequest;
+	private double deletesPerRequest;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public long getRequests() {
+		return requests;
+	}
+
+	public void setRequests(long requests) {
+		this.requests = requests;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public void setErrors(long errors) {
+		this.errors = errors;
+	}
+
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+
+	public void setMeanMillis(double meanMillis) {
+		this.meanMillis = meanMillis;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public void setP50Millis(double p50Millis) {
+		this.p50Millis = p50Millis;
+	}
+
+	public double getP90Millis() {
+		return p90Millis;
+	}
+
+	public void setP90Millis(double p90Millis) {
+		this.p90Millis = p90Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public void setP99Millis(double p99Millis) {
+		this.p99Millis = p99Millis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	public void setMaxMillis(double maxMillis) {
+		this.maxMillis = maxMillis;
+	}
+
+	public double getQueriesPerRequest() {
+		return queriesPerRequest;
+	}
+
+	public void setQueriesPerRequest(double queriesPerRequest) {
+		this.queriesPerRequest = queriesPerRequest;
+	}
+
+	public double getGetsPerRequest() {
+		return getsPerRequest;
+	}
+
+	public void setGetsPerRequest(double getsPerRequest) {
+		this.getsPerRequest = getsPerRequest;
+	}
+
+	public double getPutsPerRequest() {
+		return putsPerRequest;
+	}
+
+	public void setPutsPerRequest(double putsPerRequest) {
+		this.putsPerRequest = putsPerRequest;
+	}
+
+	public double getDeletesPerRequest() {
+		return deletesPerRequest;
+	}
+
+	public void setDeletesPerRequest(double deletesPerRequest) {
+		this.deletesPerRequest = deletesPerRequest;
+	}
+
+}
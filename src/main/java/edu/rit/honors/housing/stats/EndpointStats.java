@@ -0,0 +1,48 @@
+package edu.rit.honors.housing.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals for one API method.
+ */
+class EndpointStats {
+	
+	final LatencyHistogram latency = new LatencyHistogram();
+	final AtomicLong errors = new AtomicLong();
+	final AtomicLong queries = new AtomicLong();
+	final AtomicLong gets = new AtomicLong();
+	final AtomicLong puts = new AtomicLong();
+	final AtomicLong deletes = new AtomicLong();
+	
+	void record(RequestStats request, long micros, boolean error) {
+		this.latency.record(micros);
+		if(error) {
+			this.errors.incrementAndGet();
+		}
+		this.queries.addAndGet(request.queries);
+		this.gets.addAndGet(request.gets);
+		this.puts.addAndGet(request.puts);
+		this.deletes.addAndGet(request.deletes);
+	}
+	
+	EndpointReport report(String name) {
+		EndpointReport r = new EndpointReport();
+		long n = this.latency.getCount();
+		r.setName(name);
+		r.setRequests(n);
+		r.setErrors(this.errors.get());
+		r.setMeanMillis(this.latency.getMean() / 1000);
+		r.setP50Millis(this.latency.getPercentile(50) / 1000.0);
+		r.setP90Millis(this.latency.getPercentile(90) / 1000.0);
+		r.setP99Millis(this.latency.getPercentile(99) / 1000.0);
+		r.setMaxMillis(this.latency.getMax() / 1000.0);
+		if(n > 0) {
+			r.setQueriesPerRequest((double) this.queries.get() / n);
+			r.setGetsPerRequest((double) this.gets.get() / n);
+			r.setPutsPerRequest((double) this.puts.get() / n);
+			r.setDeletesPerRequest((double) this.deletes.get() / n);
+		}
+		return r;
+	}
+
+}
@@ -0,0 +1,93 @@
+package edu.rit.honors.housing.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in microseconds.  Values below 16 are
+ * counted exactly; above that each power of two is split into 8 buckets, so
+ * any value is reported within 12.5% of what was recorded.
+ */
+public class LatencyHistogram {
+	
+	private static final int EXACT = 16;
+	private static final int SUB_BUCKETS = 8;
+	private static final int BUCKETS = EXACT + 60 * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param micros a latency in microseconds
+	 */
+	public void record(long micros) {
+		long v = Math.max(0, micros);
+		this.counts.incrementAndGet(index(v));
+		this.total.incrementAndGet();
+		this.sum.addAndGet(v);
+		long m = this.max.get();
+		while(v > m && !this.max.compareAndSet(m, v)) {
+			m = this.max.get();
+		}
+	}
+	
+	public long getCount() {
+		return this.total.get();
+	}
+	
+	public long getMax() {
+		return this.max.get();
+	}
+	
+	public double getMean() {
+		long n = this.total.get();
+		return (n == 0) ? 0 : (double) this.sum.get() / n;
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the latency in microseconds that the given percentage of
+	 * 		recorded values are at or below
+	 */
+	public long getPercentile(double percentile) {
+		long n = this.total.get();
+		if(n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if(seen >= rank) {
+				return Math.min(highest(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+	
+	private static int index(long v) {
+		if(v < EXACT) {
+			return (int) v;
+		}
+		// v is in [2^k, 2^(k+1)) for k >= 4; keep its top 4 bits
+		int shift = 63 - Long.numberOfLeadingZeros(v) - 3;
+		int i = EXACT + (shift - 1) * SUB_BUCKETS + (int) ((v >> shift) - SUB_BUCKETS);
+		return Math.min(i, BUCKETS - 1);
+	}
+	
+	// the largest value counted in bucket i
+	private static long highest(int i) {
+		if(i < EXACT) {
+			return i;
+		}
+		int shift = (i - EXACT) / SUB_BUCKETS + 1;
+		if(shift > 58) {
+			return Long.MAX_VALUE;
+		}
+		long sub = (i - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+}
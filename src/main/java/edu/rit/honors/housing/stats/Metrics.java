@@ -0,0 +1,106 @@
+package edu.rit.honors.housing.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency and datastore operation counts for each API method, kept in memory
+ * on each instance since it started.
+ * 
+ * MetricsFilter marks the start and end of each request; the datastore
+ * operations made in between, on the same thread, are added to that request.
+ */
+public class Metrics {
+	
+	private static final long STARTED = System.currentTimeMillis();
+	
+	private static final ConcurrentMap<String, EndpointStats> ENDPOINTS = new ConcurrentHashMap<String, EndpointStats>();
+	private static final ThreadLocal<RequestStats> CURRENT = new ThreadLocal<RequestStats>();
+	
+	/**
+	 * Start counting datastore operations for a request on this thread.
+	 * 
+	 * @param endpoint the name of the API method
+	 */
+	public static void begin(String endpoint) {
+		CURRENT.set(new RequestStats(endpoint));
+	}
+	
+	/**
+	 * Record the request started on this thread.
+	 * 
+	 * @param micros how long the request took, in microseconds
+	 * @param error whether it failed
+	 */
+	public static void end(long micros, boolean error) {
+		RequestStats request = CURRENT.get();
+		CURRENT.remove();
+		if(request == null) {
+			return;
+		}
+		EndpointStats stats = ENDPOINTS.get(request.endpoint);
+		if(stats == null) {
+			ENDPOINTS.putIfAbsent(request.endpoint, new EndpointStats());
+			stats = ENDPOINTS.get(request.endpoint);
+		}
+		stats.record(request, micros, error);
+	}
+	
+	public static void countQuery() {
+		RequestStats request = CURRENT.get();
+		if(request != null) {
+			request.queries++;
+		}
+	}
+	
+	public static void countGets(int n) {
+		RequestStats request = CURRENT.get();
+		if(request != null) {
+			request.gets += n;
+		}
+	}
+	
+	public static void countPuts(int n) {
+		RequestStats request = CURRENT.get();
+		if(request != null) {
+			request.puts += n;
+		}
+	}
+	
+	public static void countDeletes(int n) {
+		RequestStats request = CURRENT.get();
+		if(request != null) {
+			request.deletes += n;
+		}
+	}
+	
+	/**
+	 * @return the stats of every API method called on this instance, by name
+	 */
+	public static List<EndpointReport> report() {
+		List<EndpointReport> reports = new ArrayList<EndpointReport>(ENDPOINTS.size());
+		for(Map.Entry<String, EndpointStats> e : ENDPOINTS.entrySet()) {
+			reports.add(e.getValue().report(e.getKey()));
+		}
+		Collections.sort(reports, new Comparator<EndpointReport>() {
+			@Override
+			public int compare(EndpointReport a, EndpointReport b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return reports;
+	}
+	
+	/**
+	 * @return when this instance started collecting stats, in milliseconds since the epoch
+	 */
+	public static long getStarted() {
+		return STARTED;
+	}
+
+}
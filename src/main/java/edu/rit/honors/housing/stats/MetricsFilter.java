@@ -0,0 +1,74 @@
+package edu.rit.honors.housing.stats;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Times every call to the Endpoints SPI and records it in Metrics under the
+ * name of the API method, taken from the end of the request path.
+ */
+public class MetricsFilter implements Filter {
+
+	@Override
+	public void init(FilterConfig config) throws ServletException {}
+
+	@Override
+	public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+			throws IOException, ServletException {
+		if(!(req instanceof HttpServletRequest) || !(res instanceof HttpServletResponse)) {
+			chain.doFilter(req, res);
+			return;
+		}
+		String uri = ((HttpServletRequest) req).getRequestURI();
+		StatusResponse response = new StatusResponse((HttpServletResponse) res);
+		boolean error = true;
+		long start = System.nanoTime();
+		Metrics.begin(uri.substring(uri.lastIndexOf('.') + 1));
+		try {
+			chain.doFilter(req, response);
+			error = response.status >= 400;
+		} finally {
+			Metrics.end((System.nanoTime() - start) / 1000, error);
+		}
+	}
+
+	@Override
+	public void destroy() {}
+	
+	// remembers the status code, which the servlet 2.5 API can't read back
+	private static class StatusResponse extends HttpServletResponseWrapper {
+		int status = 200;
+		
+		StatusResponse(HttpServletResponse response) {
+			super(response);
+		}
+		
+		@Override
+		public void setStatus(int status) {
+			this.status = status;
+			super.setStatus(status);
+		}
+		
+		@Override
+		public void sendError(int status) throws IOException {
+			this.status = status;
+			super.sendError(status);
+		}
+		
+		@Override
+		public void sendError(int status, String message) throws IOException {
+			this.status = status;
+			super.sendError(status, message);
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package edu.rit.honors.housing.stats;
+
+/**
+ * Datastore operations made by the request on the current thread.
+ */
+class RequestStats {
+	
+	final String endpoint;
+	int queries;
+	int gets;
+	int puts;
+	int deletes;
+	
+	RequestStats(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+}
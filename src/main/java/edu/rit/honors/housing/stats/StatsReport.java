@@ -0,0 +1,66 @@
+package edu.rit.honors.housing.stats;
+
+import java.util.List;
+
+/**
+ * Performance stats collected by the instance that answered the request.
+ * started is when that instance started, in milliseconds since the epoch.
+ */
+public class StatsReport {
+	
+	private Long started;
+	private List<EndpointReport> endpoints;
+	private Long reservationCommits;
+	private Long reservationConflicts;
+	private Long reservationRetries;
+	private Long reservationFailures;
+
+	public Long getStarted() {
+		return started;
+	}
+
+	public void setStarted(Long started) {
+		this.started = started;
+	}
+
+	public List<EndpointReport> getEndpoints() {
+		return endpoints;
+	}
+
+	public void setEndpoints(List<EndpointReport> endpoints) {
+		this.endpoints = endpoints;
+	}
+
+	public Long getReservationCommits() {
+		return reservationCommits;
+	}
+
+	public void setReservationCommits(Long reservationCommits) {
+		this.reservationCommits = reservationCommits;
+	}
+
+	public Long getReservationConflicts() {
+		return reservationConflicts;
+	}
+
+	public void setReservationConflicts(Long reservationConflicts) {
+		this.reservationConflicts = reservationConflicts;
+	}
+
+	public Long getReservationRetries() {
+		return reservationRetries;
+	}
+
+	public void setReservationRetries(Long reservationRetries) {
+		this.reservationRetries = reservationRetries;
+	}
+
+	public Long getReservationFailures() {
+		return reservationFailures;
+	}
+
+	public void setReservationFailures(Long reservationFailures) {
+		this.reservationFailures = reservationFailures;
+	}
+
+}